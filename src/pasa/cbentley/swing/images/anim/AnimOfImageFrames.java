@@ -34,6 +34,11 @@ public class AnimOfImageFrames implements IStringable {
 
    private String             source;
 
+   /**
+    * Incremented each time the current frame is changed
+    */
+   private int                stepCount;
+
    public AnimOfImageFrames(ImgCtx sc, ImageFrameProducer producer) {
       this.sc = sc;
       this.producer = producer;
@@ -55,10 +60,50 @@ public class AnimOfImageFrames implements IStringable {
       return currentFrame;
    }
 
+   /**
+    * Snapshot of the current frame, for a consumer in another thread than the one stepping the animation.
+    * <br>
+    * Taken while holding the lock of this animation, so that no step composites another frame in between.
+    * @return null when there is no current frame. Otherwise a snapshot owned by the caller, to be released
+    */
+   public FrameSnapshot getCurrentSnapshot() {
+      synchronized (this) {
+         if (currentFrame == null) {
+            return null;
+         }
+         return currentFrame.getSnapshot();
+      }
+   }
+
+   /**
+    * Number of changes of the current frame. A caller that knows the previous count can tell
+    * if another thread changed the frame in between.
+    * @return
+    */
+   public int getStepCount() {
+      return stepCount;
+   }
+
+   /**
+    * 
+    * @return -1 if not known yet
+    */
    public int getNumFrames() {
       return producer.getNumFrames();
    }
 
+   /**
+    * Frames known so far. Never blocks
+    * @return
+    */
+   public int getNumFramesKnown() {
+      return producer.getNumFramesKnown();
+   }
+
+   public boolean isNumFramesFinal() {
+      return producer.isNumFramesFinal();
+   }
+
    public String getSource() {
       return source;
    }
@@ -77,6 +122,7 @@ public class AnimOfImageFrames implements IStringable {
     * Returns false if its not possible. And current frame returns null
     */
    public boolean nextStep() {
+      stepCount++;
       if (isInverse && producer.isReverseSupported()) {
          currentFrame = producer.getPrev();
          if (currentFrame == null) {
@@ -113,6 +159,7 @@ public class AnimOfImageFrames implements IStringable {
     * Called manually
     */
    public boolean prevStep() {
+      stepCount++;
       if (!isInverse && producer.isReverseSupported()) {
          currentFrame = producer.getPrev();
          if (currentFrame == null) {
@@ -149,11 +196,26 @@ public class AnimOfImageFrames implements IStringable {
     * Only feasible
     */
    public void randomStep() {
-      int numFrames = producer.getNumFrames();
-      if (numFrames != -1) {
+      int numFrames = producer.getNumFramesKnown();
+      if (numFrames > 0) {
          int index = sc.getUC().getRandom().nextInt(numFrames);
-         producer.resetTo(index);
+         frameTo(index);
+      }
+   }
+
+   /**
+    * Jumps to the frame at index. Animation continues from there.
+    * <br>
+    * Returns false if its not possible. And current frame returns null
+    * @param index
+    */
+   public boolean frameTo(int index) {
+      if (index < 0 || (producer.isNumFramesFinal() && index >= producer.getNumFrames())) {
+         return false;
       }
+      stepCount++;
+      currentFrame = producer.getFrame(index);
+      return currentFrame != null;
    }
 
    public void reset() {
@@ -5,6 +5,7 @@
 package pasa.cbentley.swing.images.anim;
 
 import java.awt.image.BufferedImage;
+import java.util.concurrent.locks.LockSupport;
 
 import pasa.cbentley.core.src4.interfaces.ICallBack;
 import pasa.cbentley.core.src4.logging.Dctx;
@@ -12,7 +13,9 @@ import pasa.cbentley.core.src4.logging.ITechLvl;
 import pasa.cbentley.core.src4.thread.AbstractBRunnable;
 import pasa.cbentley.core.src4.thread.IBProgessable;
 import pasa.cbentley.swing.images.ctx.ImgCtx;
-import pasa.cbentley.swing.images.utils.DoubleBuffer;
+import pasa.cbentley.swing.images.interfaces.IGifFrameCallBack;
+import pasa.cbentley.swing.images.utils.DirtyRect;
+import pasa.cbentley.swing.images.utils.TripleBuffer;
 import pasa.cbentley.swing.images.utils.WritableBufferedImage;
 
 /**
@@ -21,35 +24,236 @@ import pasa.cbentley.swing.images.utils.WritableBufferedImage;
  * <br>
  * <br>
  * Runs according to the {@link ImageAnim#nextStep()} method
+ * <br>
+ * <br>
+ * Frames are timed against absolute deadlines on {@link System#nanoTime()}. The next deadline is the previous one plus
+ * the frame delay, whatever time was spent compositing and copying the frame. Playback does not drift.
+ * <br>
+ * When {@link AnimRunnerProducer#setDropLateFrames(boolean)} is set, a frame whose display time has already passed is
+ * composited but not sent to the GUI, so that a slow machine catches up with the GIF timing instead of playing slower.
+ * <br>
+ * <br>
+ * The runner adapts to the UI thread, unless {@link AnimRunnerProducer#setAdaptive(boolean)} is false.
+ * The {@link TripleBuffer} measures how long published frames wait before the UI thread paints them.
+ * <li>as long as the latency stays below {@link AnimRunnerProducer#LATENCY_HIGH_NANOS}, every frame is sent. A frame the UI thread
+ * did not take yet is replaced by the newer one, so the next paint shows the newest frame
+ * <li>above, only one frame out of {@link AnimRunnerProducer#getPresentInterval()} is sent.
+ * The interval doubles, up to {@link AnimRunnerProducer#MAX_PRESENT_INTERVAL}
+ * <li>below {@link AnimRunnerProducer#LATENCY_LOW_NANOS}, the interval halves back to 1
  * @author Charles Bentley
  *
  */
 public class AnimRunnerProducer extends AbstractBRunnable {
 
+   /**
+    * Nanoseconds between 2 changes of the present interval
+    */
+   public static final long  ADAPT_PERIOD_NANOS   = 250000000L;
+
+   /**
+    * Number of step changes kept. A power of 2
+    */
+   public static final int   CHANGES_SIZE         = 32;
+
+   /**
+    * Latency of the UI thread above which less frames are sent
+    */
+   public static final long  LATENCY_HIGH_NANOS   = 100000000L;
+
+   /**
+    * Latency of the UI thread below which the frame rate recovers
+    */
+   public static final long  LATENCY_LOW_NANOS    = 30000000L;
+
+   /**
+    * Maximum number of frames dropped in a row. The GUI still gets a frame now and then when far behind
+    */
+   public static final int   MAX_DROPS_IN_ROW     = 8;
+
+   /**
+    * Nanoseconds behind the deadline after which the timeline is anchored again on the current time.
+    * <br>
+    * After a pause or a long stall, the animation resumes from where it was instead of rushing to catch up
+    */
+   public static final long  MAX_LATE_NANOS       = 1000000000L;
+
+   /**
+    * At most one frame out of this number is sent under load
+    */
+   public static final int   MAX_PRESENT_INTERVAL = 8;
+
+   /**
+    * Nanoseconds a step may come before its deadline and still be on time
+    */
+   private static final long EARLY_NANOS          = 1000000L;
+
+   /**
+    * {@link System#nanoTime()} of the last change of the present interval
+    */
+   private long              adaptLast;
+
    private ICallBack         cb;
 
+   /**
+    * Region that changed at each step, indexed by step sequence modulo {@link AnimRunnerProducer#CHANGES_SIZE}
+    */
+   private final DirtyRect[] changes;
+
+   /**
+    * {@link System#nanoTime()} at which the next frame is due. 0 before the first step
+    */
+   private long              deadline;
+
+   private int               dropsInRow;
+
+   private int               framesDropped;
+
+   private boolean           isAdaptive      = true;
+
+   private boolean           isDropLateFrames;
+
+   /**
+    * One frame out of this number is sent. 1 when the UI thread keeps up
+    */
+   private volatile int      presentInterval = 1;
+
+   /**
+    * Steps since the last frame sent
+    */
+   private int               stepsNotSent;
+
    private AnimOfImageFrames imageAnim;
 
    protected final ImgCtx    imgc;
 
-   private float             speedModifier = 1.0f;
+   private float             speedModifier   = 1.0f;
 
-   private ImageFrame        frameLastSent;
+   /**
+    * Frame of the previous step, whether sent or dropped
+    */
+   private ImageFrame        frameLastStep;
 
    private BufferedImage     frameImageLastSent;
 
    /**
-    * Cannot be null
+    * Sequence number of the last step. Tags the content of the buffer images
+    */
+   private int               seq;
+
+   /**
+    * Sequence of the last frame sent to the GUI. -1 before the first
+    */
+   private int               seqSent         = -1;
+
+   /**
+    * Step count of the anim when {@link AnimRunnerProducer#frameLastStep} was read
     */
-   private DoubleBuffer      buffer;
+   private int               stepLast        = -1;
 
-   public AnimRunnerProducer(ImgCtx imgc, DoubleBuffer buffer) {
+   /**
+    * Region to copy into the back buffer, then region that changed since the last frame sent
+    */
+   private DirtyRect         dirty;
+
+   /**
+    * Cannot be null. Written only by this runner
+    */
+   private TripleBuffer      buffer;
+
+   public AnimRunnerProducer(ImgCtx imgc, TripleBuffer buffer) {
       super(imgc.getUC());
       this.imgc = imgc;
       if (buffer == null) {
          throw new NullPointerException();
       }
       this.buffer = buffer;
+      this.dirty = new DirtyRect(imgc);
+      this.changes = new DirtyRect[CHANGES_SIZE];
+      for (int i = 0; i < changes.length; i++) {
+         changes[i] = new DirtyRect(imgc);
+      }
+   }
+
+   /**
+    * Computes the pixels that changed between the frame of the previous step and frame.
+    * <br>
+    * <br>
+    * Only when the frame directly follows the previous one in the GIF: the rectangle of the frame plus
+    * the rectangle of the previous frame if its disposal cleared or restored it.
+    * Otherwise the whole image.
+    * @param frame
+    * @param isNextStep true when no other thread changed the frame since the previous step
+    * @param change set with the region
+    */
+   private void computeChange(ImageFrame frame, boolean isNextStep, DirtyRect change) {
+      int w = buffer.getWidth();
+      int h = buffer.getHeight();
+      ImageFrame prev = frameLastStep;
+      if (isNextStep && prev instanceof ImageFrameGIF && frame instanceof ImageFrameGIF && frame.getIndex() == prev.getIndex() + 1) {
+         ImageFrameGIF fg = (ImageFrameGIF) frame;
+         ImageFrameGIF pg = (ImageFrameGIF) prev;
+         change.set(fg.getX(), fg.getY(), fg.getW(), fg.getH());
+         int disposal = pg.getDisposalCode();
+         if (disposal == 2 || disposal == 3) {
+            change.union(pg.getX(), pg.getY(), pg.getW(), pg.getH());
+         }
+         change.clip(w, h);
+      } else {
+         change.set(0, 0, w, h);
+      }
+   }
+
+   /**
+    * Union of the changes of the steps after from, up to the last step.
+    * @param from sequence of a step
+    * @param out
+    * @return false when the changes since from are not known anymore. Everything changed
+    */
+   private boolean unionChanges(int from, DirtyRect out) {
+      if (from < 0 || from > seq || seq - from >= CHANGES_SIZE) {
+         return false;
+      }
+      out.set(0, 0, 0, 0);
+      for (int i = from + 1; i <= seq; i++) {
+         DirtyRect c = changes[i & (CHANGES_SIZE - 1)];
+         out.union(c.getX(), c.getY(), c.getW(), c.getH());
+      }
+      return true;
+   }
+
+   /**
+    * Changes the present interval according to the latency of the UI thread. At most once per {@link AnimRunnerProducer#ADAPT_PERIOD_NANOS}
+    * @param now
+    */
+   private void adapt(long now) {
+      if (now - adaptLast < ADAPT_PERIOD_NANOS) {
+         return;
+      }
+      //a UI thread that takes nothing does not update the latency. the wait of the pending frame tells
+      long latency = Math.max(buffer.getLatencyNanos(), buffer.getPendingNanos());
+      if (latency > LATENCY_HIGH_NANOS && presentInterval < MAX_PRESENT_INTERVAL) {
+         presentInterval = presentInterval * 2;
+         adaptLast = now;
+      } else if (latency < LATENCY_LOW_NANOS && presentInterval > 1) {
+         presentInterval = presentInterval / 2;
+         adaptLast = now;
+      }
+   }
+
+   /**
+    * Number of frames composited but not sent because they were late or the UI thread was behind
+    * @return
+    */
+   public int getFramesDropped() {
+      return framesDropped;
+   }
+
+   /**
+    * One frame out of this number is sent to the GUI
+    * @return 1 when the UI thread keeps up
+    */
+   public int getPresentInterval() {
+      return presentInterval;
    }
 
    public float getSpeedModifier() {
@@ -71,7 +275,7 @@ public class AnimRunnerProducer extends AbstractBRunnable {
    }
 
    public void forceFrame(int index) {
-
+      imageAnim.frameTo(index);
    }
 
    public void forceFramePrev() {
@@ -93,59 +297,158 @@ public class AnimRunnerProducer extends AbstractBRunnable {
 
       //the anim may decide to stop because it has reached the last of its frame by itself
       while (isContinue()) {
-
-         //sync on anim to modify its state
-         synchronized (imageAnim) {
-            boolean isContinue = imageAnim.nextStep();
-            //#debug
-            //toDLog().pFlow("isContinue=" + isContinue, ia, AnimRunnerProducer.class, "runAbstract", IDLog.LVL_05_FINE, true);
-            if (!isContinue) {
-               return;
+         long waitTime = step();
+         if (waitTime < 0) {
+            return;
+         }
+         //wait until the deadline of the next frame. parkNanos may return early
+         long remaining;
+         while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+               //user willingly interrupted (skip action) to make it run faster
+               //because a frame has a long running time. the next step anchors the timeline again
+
+               //#debug
+               imgc.toDLog().pFlow("Wait Interrupted", this, AnimRunnerProducer.class, "runAbstract", ITechLvl.LVL_05_FINE, true);
+               break;
             }
          }
+      }
+   }
+
+   /**
+    * Advances the animation by one frame and sends it to the callback.
+    * <br>
+    * <br>
+    * Called in a loop by {@link AnimRunnerProducer#runAbstract()} when the runner has its own thread,
+    * or by the {@link AnimScheduler} thread shared by several animations.
+    * <br>
+    * <br>
+    * A step earlier than its deadline, because of a forward command, or too late, after a pause,
+    * starts the timeline again from the current time.
+    * @return the delay in milliseconds before the next step, rounded up. -1 when the animation is over
+    */
+   public long step() {
+      long now = System.nanoTime();
+      if (deadline == 0 || now < deadline - EARLY_NANOS || now - deadline > MAX_LATE_NANOS) {
+         deadline = now;
+      }
+      boolean isNextStep;
+      ImageFrame frame;
+      BufferedImage image;
+      //sync on anim to modify its state
+      synchronized (imageAnim) {
+         isNextStep = imageAnim.getStepCount() == stepLast;
+         boolean isContinue = imageAnim.nextStep();
+         stepLast = imageAnim.getStepCount();
+         //#debug
+         //toDLog().pFlow("isContinue=" + isContinue, ia, AnimRunnerProducer.class, "runAbstract", IDLog.LVL_05_FINE, true);
+         if (!isContinue) {
+            return -1;
+         }
          //get the first frame. preload next in another thread?
-         ImageFrame frame = imageAnim.getCurrentFrame();
+         frame = imageAnim.getCurrentFrame();
 
          //#debug
-         toDLog().pFlow("CurrentFrame", frame, AnimRunnerProducer.class, "runAbstract", ITechLvl.LVL_05_FINE, true);
+         toDLog().pFlow("CurrentFrame", frame, AnimRunnerProducer.class, "step", ITechLvl.LVL_05_FINE, true);
 
          if (frameImageLastSent != null) {
             //do a transition effect between the 2 frames?
 
          }
-         //create a double buffer. this frame 
-         BufferedImage image = frame.getImage();
-         WritableBufferedImage backBuffer = buffer.getBackBuffer();
-         backBuffer.resetTo(image);
-         buffer.swapImages();
-         //
-         //ImageFrame frameForGui = frame.cloneForGui(buffer.getBackBuffer());
-         //we have to push a copy of this frame to the GUI thread
-
-         //send the frame for display
-         if (cb != null) {
-            cb.callBack(frame);
+         seq++;
+         computeChange(frame, isNextStep, changes[seq & (CHANGES_SIZE - 1)]);
+         frameLastStep = frame;
+         int currentFrameDelay = (int) (frame.getDelay() * speedModifier);
+         long frameNanos = currentFrameDelay * 10000000L;
+         if (frameNanos == 0) {
+            frameNanos = 2000000L; //minimum waiting time
+         }
+         deadline += frameNanos;
+         long time = System.nanoTime();
+         //display time of this frame is over. it was composited by nextStep
+         boolean isDrop = isDropLateFrames && time >= deadline;
+         if (isAdaptive) {
+            adapt(time);
+            //less frames are sent while the latency of the UI thread is over the threshold
+            isDrop |= stepsNotSent + 1 < presentInterval;
          }
-         frameLastSent = frame;
-         //wait the frame delay before querying the next frame
-         try {
-            int currentFrameDelay = (int) (frame.getDelay() * speedModifier);
-            long waitTime = currentFrameDelay * 10;
-            if (waitTime == 0) {
-               waitTime = 2; //minimum waiting time
+         if (isDrop && dropsInRow < MAX_DROPS_IN_ROW) {
+            //its change is in the history, so the next frame sent copies and repaints it
+            dropsInRow++;
+            framesDropped++;
+            stepsNotSent++;
+            return waitNanosToMillis();
+         }
+         dropsInRow = 0;
+         stepsNotSent = 0;
+         //copy the frame into the back buffer, then publish it to the GUI
+         //the back buffer holds an older frame. only the regions changed since that frame are copied
+         //still under the lock: the UI thread may composite another frame in the same image with a frame command
+         image = frame.getImage();
+         WritableBufferedImage backBuffer = buffer.getBackBuffer();
+         boolean isSameSize = image.getWidth() == backBuffer.getWidth() && image.getHeight() == backBuffer.getHeight();
+         if (isSameSize && unionChanges(backBuffer.getVersion(), dirty)) {
+            if (!dirty.isEmpty()) {
+               backBuffer.copyRect(image, dirty.getX(), dirty.getY(), dirty.getW(), dirty.getH());
             }
-            Thread.sleep(waitTime);
-         } catch (InterruptedException e) {
-            //what should we do here? it depends.
-            //1: user willingly interrupted (skip action) to make it run faster
-            //because a frame has a long running time 
-
-            //#debug
-            imgc.toDLog().pFlow("Sleep Interrupted", this, AnimRunnerProducer.class, "runAbstract", ITechLvl.LVL_05_FINE, true);
+         } else {
+            backBuffer.resetTo(image);
          }
+         backBuffer.setVersion(seq);
+         buffer.swapImages();
+      }
+      //send the frame for display. the GUI paints the buffer. a callback keeping the frame image takes a FrameSnapshot
+      if (cb instanceof IGifFrameCallBack) {
+         if (!unionChanges(seqSent, dirty)) {
+            dirty.set(0, 0, image.getWidth(), image.getHeight());
+         }
+         ((IGifFrameCallBack) cb).callBackFrame(frame, dirty.getX(), dirty.getY(), dirty.getW(), dirty.getH());
+      } else if (cb != null) {
+         cb.callBack(frame);
       }
+      seqSent = seq;
+      return waitNanosToMillis();
    }
 
+   /**
+    * True by default
+    * @param isAdaptive false to send every frame whatever the latency of the UI thread
+    */
+   public void setAdaptive(boolean isAdaptive) {
+      this.isAdaptive = isAdaptive;
+      if (!isAdaptive) {
+         presentInterval = 1;
+      }
+   }
+
+   /**
+    * Time until the deadline of the next frame
+    * @return milliseconds rounded up. 0 when already late
+    */
+   private long waitNanosToMillis() {
+      long waitNanos = deadline - System.nanoTime();
+      if (waitNanos <= 0) {
+         return 0;
+      }
+      return (waitNanos + 999999L) / 1000000L;
+   }
+
+   /**
+    * When true, frames already late when composited are not sent to the GUI. False by default
+    * @param isDropLateFrames
+    */
+   public void setDropLateFrames(boolean isDropLateFrames) {
+      this.isDropLateFrames = isDropLateFrames;
+   }
+
+   /**
+    * The callback gets the {@link ImageFrame} of each step in the anim thread.
+    * <br>
+    * Its image may be composited again at the next step. A callback that reads it later asks a {@link ImageFrame#getSnapshot()}.
+    * @param cb
+    */
    public void setCallback(ICallBack cb) {
       this.cb = cb;
    }
@@ -179,6 +482,10 @@ public class AnimRunnerProducer extends AbstractBRunnable {
 
    private void toStringPrivate(Dctx dc) {
       dc.appendVarWithSpace("speedModifier", speedModifier);
+      dc.appendVarWithSpace("isDropLateFrames", isDropLateFrames);
+      dc.appendVarWithSpace("framesDropped", framesDropped);
+      dc.appendVarWithSpace("isAdaptive", isAdaptive);
+      dc.appendVarWithSpace("presentInterval", presentInterval);
    }
 
    public void toString1Line(Dctx dc) {
@@ -0,0 +1,235 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.PriorityQueue;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.core.src4.thread.ITechRunnable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Single thread driving the {@link AnimRunnerProducer}s of many animations.
+ * <br>
+ * <br>
+ * Instead of one thread sleeping between the frames of each animation, runners are kept in a priority queue
+ * on the time their next frame is due. The thread steps whichever runners are due with {@link AnimRunnerProducer#step()},
+ * then sleeps until the next deadline. 200 animations cost one thread and one wake up per due frame.
+ * <br>
+ * <br>
+ * The state of a runner is still controlled with {@link AnimRunnerProducer#requestNewState(int)}
+ * <li>{@link ITechRunnable#STATE_1_PAUSED} runners are checked again every {@link AnimScheduler#PAUSE_CHECK} ms
+ * <li>{@link ITechRunnable#STATE_3_STOPPED} and {@link ITechRunnable#STATE_6_FINISHED} runners are dropped
+ * <br>
+ * A runner whose animation is over is set to {@link ITechRunnable#STATE_6_FINISHED}.
+ * <br>
+ * <br>
+ * Steps must be short, since a slow frame delays all the animations behind it.
+ * @author Charles Bentley
+ *
+ */
+public class AnimScheduler implements IStringable, Runnable {
+
+   /**
+    * A runner in the queue
+    */
+   private static class Entry {
+
+      /**
+       * {@link System#nanoTime()} at which the next step is due
+       */
+      long                     due;
+
+      final AnimRunnerProducer runner;
+
+      Entry(AnimRunnerProducer runner, long due) {
+         this.runner = runner;
+         this.due = due;
+      }
+   }
+
+   /**
+    * Period in ms at which paused runners are checked for a new state
+    */
+   public static final long                                 PAUSE_CHECK = 100;
+
+   /**
+    * Entry of each scheduled runner, whether it is in the queue or being stepped
+    */
+   private final IdentityHashMap<AnimRunnerProducer, Entry> entries     = new IdentityHashMap<AnimRunnerProducer, Entry>();
+
+   protected final ImgCtx                                   imgc;
+
+   private final PriorityQueue<Entry>                       queue;
+
+   private int                                              steps;
+
+   private Thread                                           thread;
+
+   public AnimScheduler(ImgCtx imgc) {
+      this.imgc = imgc;
+      queue = new PriorityQueue<Entry>(16, new Comparator<Entry>() {
+         public int compare(Entry a, Entry b) {
+            return a.due < b.due ? -1 : (a.due == b.due ? 0 : 1);
+         }
+      });
+   }
+
+   /**
+    * Schedules the runner. Its first frame is due now.
+    * <br>
+    * The runner must not be started in a thread of its own.
+    * @param runner with its animation set
+    */
+   public synchronized void add(AnimRunnerProducer runner) {
+      if (entries.containsKey(runner)) {
+         return;
+      }
+      Entry e = new Entry(runner, System.nanoTime());
+      entries.put(runner, e);
+      queue.add(e);
+      if (thread == null) {
+         thread = new Thread(this, "AnimScheduler");
+         thread.setDaemon(true);
+         thread.start();
+      }
+      notifyAll();
+   }
+
+   public synchronized int getNumAnims() {
+      return entries.size();
+   }
+
+   /**
+    * Waits for the first due runner and removes it from the queue
+    * @return
+    * @throws InterruptedException
+    */
+   private synchronized Entry nextDue() throws InterruptedException {
+      while (true) {
+         Entry e = queue.peek();
+         if (e == null) {
+            wait();
+            continue;
+         }
+         long delay = e.due - System.nanoTime();
+         if (delay > 0) {
+            wait(delay / 1000000L, (int) (delay % 1000000L));
+            continue;
+         }
+         return queue.poll();
+      }
+   }
+
+   /**
+    * Stops driving the runner. Its state is not modified
+    * @param runner
+    */
+   public synchronized void remove(AnimRunnerProducer runner) {
+      Entry e = entries.remove(runner);
+      if (e != null) {
+         queue.remove(e);
+      }
+   }
+
+   public void run() {
+      while (true) {
+         Entry e;
+         try {
+            e = nextDue();
+         } catch (InterruptedException ex) {
+            synchronized (this) {
+               thread = null;
+               //runners added in the mean time need a thread
+               if (!entries.isEmpty()) {
+                  thread = new Thread(this, "AnimScheduler");
+                  thread.setDaemon(true);
+                  thread.start();
+               }
+            }
+            return;
+         }
+         AnimRunnerProducer runner = e.runner;
+         int state = runner.getState();
+         long wait;
+         if (state == ITechRunnable.STATE_3_STOPPED || state == ITechRunnable.STATE_6_FINISHED) {
+            wait = -1;
+         } else if (state == ITechRunnable.STATE_1_PAUSED) {
+            wait = PAUSE_CHECK;
+         } else {
+            try {
+               wait = runner.step();
+            } catch (RuntimeException ex) {
+               //one broken animation must not stop the others
+               ex.printStackTrace();
+               wait = -1;
+            }
+            steps++;
+            if (wait < 0) {
+               runner.requestNewState(ITechRunnable.STATE_6_FINISHED);
+            }
+         }
+         synchronized (this) {
+            if (entries.get(runner) != e) {
+               //removed while stepping
+               continue;
+            }
+            if (wait < 0) {
+               entries.remove(runner);
+            } else {
+               e.due = System.nanoTime() + wait * 1000000L;
+               queue.add(e);
+            }
+         }
+      }
+   }
+
+   /**
+    * The next frame of the runner is due now. Skips the remaining delay of its current frame
+    * @param runner
+    */
+   public synchronized void stepNow(AnimRunnerProducer runner) {
+      Entry e = entries.get(runner);
+      if (e != null && queue.remove(e)) {
+         e.due = System.nanoTime();
+         queue.add(e);
+         notifyAll();
+      }
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "AnimScheduler");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "AnimScheduler");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("anims", entries.size());
+      dc.appendVarWithSpace("steps", steps);
+   }
+   //#enddebug
+
+}
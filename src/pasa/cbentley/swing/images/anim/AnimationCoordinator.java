@@ -22,6 +22,7 @@ import pasa.cbentley.swing.images.ctx.ImgCtx;
 import pasa.cbentley.swing.images.interfaces.IFrameData;
 import pasa.cbentley.swing.images.interfaces.IGifCommadable;
 import pasa.cbentley.swing.images.interfaces.IGifRepaintable;
+import pasa.cbentley.swing.images.utils.DirtyRect;
 
 /**
  * Create by a {@link IGifRepaintable} UI component (e.g. JComponentAnim) 
@@ -54,12 +55,38 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
 
    private ImgCtx             imgc;
 
+   /**
+    * False until a frame is painted. The draw offset is then known
+    */
+   private boolean            isPainted;
+
+   /**
+    * When true, the animation is stepped by the {@link AnimScheduler} shared with other animations
+    * instead of a thread of its own
+    */
+   private boolean            isSharedScheduler;
+
    private boolean            isShowData;
 
    private String             loadingMessage;
 
+   /**
+    * x given to the last {@link AnimationCoordinator#paintAnimFrame(Graphics, int, int)}
+    */
+   private int                paintX;
+
+   /**
+    * y given to the last {@link AnimationCoordinator#paintAnimFrame(Graphics, int, int)}
+    */
+   private int                paintY;
+
    private Dimension          preferredSize;
 
+   /**
+    * Used in the UI thread by {@link AnimationCoordinator#repaintRegion(int, int, int, int, int, int)}
+    */
+   private DirtyRect          repaintRegion;
+
    protected ThreadAnimToUI   threadAnimToUI;
 
    private int                transform;
@@ -71,6 +98,7 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
       }
       this.component = component;
       preferredSize = new Dimension(200, 200); //sets a default size 
+      repaintRegion = new DirtyRect(imgc);
       threadAnimToUI = new ThreadAnimToUI(imgc, this);
    }
 
@@ -94,7 +122,9 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
     */
    public void cmdForward() {
       if (animRunner != null) {
-         if (animRunner.getThread() != null) {
+         if (isSharedScheduler) {
+            imgc.getAnimScheduler().stepNow(animRunner);
+         } else if (animRunner.getThread() != null) {
             //anim.requestNewState(IBRunnable.STATE_5_INTERRUPTED);
             animRunner.getThread().interrupt();
          }
@@ -126,8 +156,13 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
    }
 
    public void cmdFrameTo(int val) {
-      // TODO Auto-generated method stub
-
+      if (ia == null) {
+         return;
+      }
+      synchronized (ia) {
+         animRunner.forceFrame(val);
+         this.repaint();
+      }
    }
 
    public void cmdIsInverse(boolean b) {
@@ -176,7 +211,10 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
 
    public void cmdRandom() {
       synchronized (ia) {
-         int num = ia.getNumFrames();
+         int num = ia.getNumFramesKnown();
+         if (num <= 0) {
+            return;
+         }
          int frameIndex = imgc.getUC().getRandom().nextInt(num);
          animRunner.forceFrame(frameIndex);
          this.repaint();
@@ -266,6 +304,10 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
       return transform;
    }
 
+   public boolean isSharedScheduler() {
+      return isSharedScheduler;
+   }
+
    public void killAnim() {
       if (animRunner != null) {
          animRunner.requestNewState(ITechRunnable.STATE_3_STOPPED);
@@ -276,6 +318,10 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
     * Transform may change preferred size
     */
    public void paintAnimFrame(Graphics g, int x, int y) {
+      //offset of the next repaint regions
+      paintX = x;
+      paintY = y;
+      isPainted = true;
       if (ia == null) {
          if (loadingMessage != null) {
             g.drawString(loadingMessage, 40, 40);
@@ -306,7 +352,8 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
    private void paintDebugData(Graphics g, int x, int y, IFrameData frame) {
       if (isShowData) {
          int h = g.getFontMetrics().getHeight();
-         String str1 = "#" + frame.getIndex() + " of " + ia.getNumFrames();
+         String num = ia.isNumFramesFinal() ? String.valueOf(ia.getNumFrames()) : ia.getNumFramesKnown() + "+";
+         String str1 = "#" + frame.getIndex() + " of " + num;
          String str2 = "" + frame.getDisposal();
          String str3 = "delay:" + frame.getDelay();
          String str4 = "";
@@ -354,6 +401,36 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
       component.requestRepaintPlease();
    }
 
+   /**
+    * Repaints the region of the image that changed, mapped through the transform.
+    * <br>
+    * The region is moved by the x,y of the last {@link AnimationCoordinator#paintAnimFrame(Graphics, int, int)}.
+    * <br>
+    * Everything is repainted when the debug data is shown, nothing was painted yet or the transform is not mapped by {@link DirtyRect}.
+    * @param x image coordinates
+    * @param y
+    * @param w
+    * @param h
+    * @param imageW
+    * @param imageH
+    */
+   public void repaintRegion(int x, int y, int w, int h, int imageW, int imageH) {
+      if (isShowData || !isPainted) {
+         component.requestRepaintPlease();
+         return;
+      }
+      DirtyRect region = repaintRegion;
+      region.set(x, y, w, h);
+      if (region.isEmpty()) {
+         return;
+      }
+      if (region.transform(transform, imageW, imageH)) {
+         component.requestRepaintRegion(paintX + region.getX(), paintY + region.getY(), region.getW(), region.getH());
+      } else {
+         component.requestRepaintPlease();
+      }
+   }
+
    /**
     * Modify where to draw the debug data
     * @param xDebug
@@ -377,11 +454,19 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
          //#debug
          toDLog().pFlow("", this, AnimationCoordinator.class, "setImage", ITechLvl.LVL_05_FINE, false);
 
+         if (isSharedScheduler && this.animRunner != null) {
+            //the previous animation would otherwise keep its slot in the scheduler
+            imgc.getAnimScheduler().remove(this.animRunner);
+         }
          AnimRunnerProducer animRunner = createAnimRunner();
          animRunner.setAnimation(ia);
          animRunner.setCallback(threadAnimToUI);
          this.animRunner = animRunner;
-         imgc.getSwingCtx().getExecutorService().execute(animRunner);
+         if (isSharedScheduler) {
+            imgc.getAnimScheduler().add(animRunner);
+         } else {
+            imgc.getAnimExecutor().execute(animRunner);
+         }
       }
    }
 
@@ -390,6 +475,15 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
       this.loadingMessage = message;
    }
 
+   /**
+    * Applies to the next {@link AnimOfImageFrames} set. Use it for views showing many small animations at once,
+    * where a thread per animation costs more than the animations themselves.
+    * @param isSharedScheduler true to use the scheduler of the {@link ImgCtx}. false by default
+    */
+   public void setSharedScheduler(boolean isSharedScheduler) {
+      this.isSharedScheduler = isSharedScheduler;
+   }
+
    /**
     * Update preferred size
     * @param transform
@@ -433,6 +527,8 @@ public class AnimationCoordinator implements IGifCommadable, IStringable {
       dc.root(this, "AnimDrawerWithProducer");
       dc.appendVarWithSpace("loadingMessage", loadingMessage);
       dc.appendVarWithSpace("transform", transform);
+      dc.appendVarWithSpace("paintX", paintX);
+      dc.appendVarWithSpace("paintY", paintY);
       dc.appendVarWithSpace("pw", preferredSize.width);
       dc.appendVarWithSpace("ph", preferredSize.height);
       dc.nlLvlTitleIfNull(ia, "ImageAnim");
@@ -0,0 +1,189 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Image of a frame that does not change while it is held. Safe to read from any thread, for example to paint it.
+ * <br>
+ * <br>
+ * The image of an {@link ImageFrameGIF} is often the master image of its {@link GifEnginePlayOnly}, which is composited
+ * again at the next step. A consumer that keeps the image after the step asks a snapshot with {@link ImageFrame#getSnapshot()}.
+ * <br>
+ * Snapshots are reference counted
+ * <li>the consumer that got it owns one reference
+ * <li>{@link FrameSnapshot#acquire()} adds a reference for another reader
+ * <li>{@link FrameSnapshot#release()} drops one. The image must not be read after that
+ * <br>
+ * When the last reference is dropped, the snapshot goes back to its {@link FrameSnapshotPool} and its image is reused.
+ * <br>
+ * Snapshots of frames whose image never changes have no pool. They wrap that image without copy.
+ * @author Charles Bentley
+ *
+ */
+public class FrameSnapshot implements IStringable {
+
+   private ImageFrame              frame;
+
+   private final BufferedImage     image;
+
+   protected final ImgCtx          imgc;
+
+   /**
+    * Null when the snapshot wraps an image that never changes
+    */
+   private final FrameSnapshotPool pool;
+
+   private final AtomicInteger     refs = new AtomicInteger();
+
+   /**
+    * Pooled snapshot with its own ARGB image of w x h
+    * @param imgc
+    * @param pool
+    * @param w
+    * @param h
+    */
+   FrameSnapshot(ImgCtx imgc, FrameSnapshotPool pool, int w, int h) {
+      this.imgc = imgc;
+      this.pool = pool;
+      this.image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+   }
+
+   /**
+    * Snapshot of an image that never changes. No copy
+    * @param imgc
+    * @param frame
+    * @param image
+    */
+   public FrameSnapshot(ImgCtx imgc, ImageFrame frame, BufferedImage image) {
+      this.imgc = imgc;
+      this.pool = null;
+      this.frame = frame;
+      this.image = image;
+      this.refs.set(1);
+   }
+
+   /**
+    * Adds a reference for another reader
+    * @return this
+    * @throws IllegalStateException when the snapshot was already released
+    */
+   public FrameSnapshot acquire() {
+      if (!tryAcquire()) {
+         throw new IllegalStateException("Snapshot already released");
+      }
+      return this;
+   }
+
+   /**
+    * Frame whose image was copied. Its fields do not change
+    * @return
+    */
+   public ImageFrame getFrame() {
+      return frame;
+   }
+
+   public BufferedImage getImage() {
+      return image;
+   }
+
+   public int getIndex() {
+      return frame.getIndex();
+   }
+
+   /**
+    * Pixels of a pooled snapshot
+    * @return
+    */
+   int[] getPixels() {
+      return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+   }
+
+   public int getRefCount() {
+      return refs.get();
+   }
+
+   /**
+    * Drops one reference. The last one gives the snapshot back to its pool.
+    * @throws IllegalStateException when released more times than acquired
+    */
+   public void release() {
+      int r = refs.decrementAndGet();
+      if (r == 0) {
+         if (pool != null) {
+            frame = null;
+            pool.recycle(this);
+         }
+      } else if (r < 0) {
+         refs.incrementAndGet();
+         throw new IllegalStateException("Snapshot released too many times");
+      }
+   }
+
+   /**
+    * Called by the pool when the snapshot is handed out with a new content
+    * @param frame
+    */
+   void set(ImageFrame frame) {
+      this.frame = frame;
+      refs.set(1);
+   }
+
+   /**
+    * Adds a reference if the snapshot is still alive
+    * @return false when it went back to the pool
+    */
+   boolean tryAcquire() {
+      while (true) {
+         int r = refs.get();
+         if (r <= 0) {
+            return false;
+         }
+         if (refs.compareAndSet(r, r + 1)) {
+            return true;
+         }
+      }
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "FrameSnapshot");
+      toStringPrivate(dc);
+      dc.nlLvl(frame, "Frame");
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "FrameSnapshot");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("index", frame == null ? -1 : frame.getIndex());
+      dc.appendVarWithSpace("refs", refs.get());
+      dc.appendVarWithSpace("isPooled", pool != null);
+   }
+   //#enddebug
+
+}
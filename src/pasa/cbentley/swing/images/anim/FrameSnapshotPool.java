@@ -0,0 +1,127 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Released {@link FrameSnapshot}s of one image size, reused for the next snapshots.
+ * <br>
+ * <br>
+ * Snapshots are released by any thread, often the UI thread. The free list is lock free.
+ * <br>
+ * At most maxFree snapshots are kept. Extra ones are left to the garbage collector.
+ * @author Charles Bentley
+ *
+ */
+public class FrameSnapshotPool implements IStringable {
+
+   private final AtomicInteger                        created  = new AtomicInteger();
+
+   private final ConcurrentLinkedQueue<FrameSnapshot> free     = new ConcurrentLinkedQueue<FrameSnapshot>();
+
+   private final AtomicInteger                        freeSize = new AtomicInteger();
+
+   private final int                                  h;
+
+   protected final ImgCtx                             imgc;
+
+   private final int                                  maxFree;
+
+   private final AtomicInteger                        reused   = new AtomicInteger();
+
+   private final int                                  w;
+
+   /**
+    *
+    * @param imgc
+    * @param w width of the snapshot images
+    * @param h height
+    * @param maxFree number of released snapshots kept for reuse
+    */
+   public FrameSnapshotPool(ImgCtx imgc, int w, int h, int maxFree) {
+      this.imgc = imgc;
+      this.w = w;
+      this.h = h;
+      this.maxFree = maxFree;
+   }
+
+   public int getHeight() {
+      return h;
+   }
+
+   public int getWidth() {
+      return w;
+   }
+
+   /**
+    * A snapshot with one reference, owned by the caller. Its content is the one of an older frame
+    * @param frame
+    * @return
+    */
+   FrameSnapshot obtain(ImageFrame frame) {
+      FrameSnapshot snap = free.poll();
+      if (snap == null) {
+         snap = new FrameSnapshot(imgc, this, w, h);
+         created.incrementAndGet();
+      } else {
+         freeSize.decrementAndGet();
+         reused.incrementAndGet();
+      }
+      snap.set(frame);
+      return snap;
+   }
+
+   /**
+    * Called by {@link FrameSnapshot#release()} for the last reference
+    * @param snap
+    */
+   void recycle(FrameSnapshot snap) {
+      if (freeSize.incrementAndGet() <= maxFree) {
+         free.offer(snap);
+      } else {
+         freeSize.decrementAndGet();
+      }
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "FrameSnapshotPool");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "FrameSnapshotPool");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("w", w);
+      dc.appendVarWithSpace("h", h);
+      dc.appendVarWithSpace("created", created.get());
+      dc.appendVarWithSpace("reused", reused.get());
+      dc.appendVarWithSpace("free", freeSize.get());
+   }
+   //#enddebug
+
+}
@@ -0,0 +1,389 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Pre decoded GIF animation on disk. Written once, then memory mapped read only.
+ * <br>
+ * <br>
+ * Little endian layout
+ * <li>header of {@link GifCacheFile#HEADER_SIZE} bytes: magic, version, width, height, loop count, number of frames
+ * <li>the composited ARGB rows of each frame, one logical screen per frame, in frame order
+ * <li>the timeline: one record of {@link GifCacheFile#RECORD_INTS} ints per frame with the fields of its {@link GifFrameDescriptor}
+ * <br>
+ * <br>
+ * Frames are appended while the engine composites its first pass. The header and the timeline are written
+ * last, and the file is renamed to its final name only then. A file with a valid name is always complete.
+ * <br>
+ * The disposal plan is not stored. It is compiled again from the timeline records, which is a loop over primitive fields.
+ * Checkpoints are not needed since every composited frame is in the file.
+ * @author Charles Bentley
+ *
+ */
+public class GifCacheFile implements IStringable {
+
+   public static final String EXTENSION        = ".gifc";
+
+   private static final int   FLAG_INTERLACED  = 1;
+
+   private static final int   FLAG_LOCAL_TABLE = 2;
+
+   /**
+    * Bytes of the header
+    */
+   public static final int    HEADER_SIZE      = 32;
+
+   /**
+    * "GIFC" read as a little endian int
+    */
+   private static final int   MAGIC            = 0x43464947;
+
+   /**
+    * x, y, w, h, delay, disposal, transparentIndex, flags, dataOffset, dataEnd
+    */
+   public static final int    RECORD_INTS      = 10;
+
+   public static final int    VERSION          = 1;
+
+   /**
+    * Write mode. Reused to convert each frame to bytes
+    */
+   private ByteBuffer         buffer;
+
+   private FileChannel        channel;
+
+   private final int          frameInts;
+
+   /**
+    * Read mode. Composited frames of the mapped file
+    */
+   private IntBuffer          framesInts;
+
+   private final int          h;
+
+   protected final ImgCtx     imgc;
+
+   private boolean            isAborted;
+
+   private int                loopCount;
+
+   private long               maxBytes;
+
+   private int                numFrames;
+
+   /**
+    * Final path of the file
+    */
+   private final Path         path;
+
+   /**
+    * Read mode. Timeline records
+    */
+   private IntBuffer          records;
+
+   /**
+    * Write mode. Renamed to path when finished
+    */
+   private Path               temp;
+
+   private final int          w;
+
+   private GifCacheFile(ImgCtx imgc, Path path, int w, int h) {
+      this.imgc = imgc;
+      this.path = path;
+      this.w = w;
+      this.h = h;
+      this.frameInts = w * h;
+   }
+
+   /**
+    * Starts writing a cache file in a temporary file next to path
+    * @param imgc
+    * @param path final path
+    * @param w
+    * @param h
+    * @param maxBytes the file is aborted when larger
+    * @return
+    * @throws IOException
+    */
+   static GifCacheFile create(ImgCtx imgc, Path path, int w, int h, long maxBytes) throws IOException {
+      GifCacheFile file = new GifCacheFile(imgc, path, w, h);
+      file.maxBytes = maxBytes;
+      file.temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+      file.channel = FileChannel.open(file.temp, StandardOpenOption.WRITE);
+      file.buffer = ByteBuffer.allocateDirect(file.frameInts * 4).order(ByteOrder.LITTLE_ENDIAN);
+      return file;
+   }
+
+   /**
+    * Maps an existing cache file
+    * @param imgc
+    * @param path
+    * @return
+    * @throws IOException when the file is not a complete cache file of this version
+    */
+   static GifCacheFile open(ImgCtx imgc, Path path) throws IOException {
+      FileChannel fc = FileChannel.open(path, StandardOpenOption.READ);
+      try {
+         long size = fc.size();
+         if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            throw new IOException("Bad cache file size " + size);
+         }
+         MappedByteBuffer mapped = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+         mapped.order(ByteOrder.LITTLE_ENDIAN);
+         if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            throw new IOException("Not a cache file of version " + VERSION);
+         }
+         int w = mapped.getInt(8);
+         int h = mapped.getInt(12);
+         int numFrames = mapped.getInt(20);
+         long framesBytes = (long) w * h * 4L * numFrames;
+         if (w <= 0 || h <= 0 || numFrames <= 0 || size != HEADER_SIZE + framesBytes + numFrames * RECORD_INTS * 4L) {
+            throw new IOException("Truncated cache file");
+         }
+         GifCacheFile file = new GifCacheFile(imgc, path, w, h);
+         file.loopCount = mapped.getInt(16);
+         file.numFrames = numFrames;
+         mapped.position(HEADER_SIZE);
+         mapped.limit((int) (HEADER_SIZE + framesBytes));
+         file.framesInts = mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+         mapped.limit((int) size);
+         mapped.position((int) (HEADER_SIZE + framesBytes));
+         file.records = mapped.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+         return file;
+      } finally {
+         //mapping stays valid
+         fc.close();
+      }
+   }
+
+   /**
+    * Drops the file being written
+    */
+   public void abort() {
+      if (isAborted || temp == null) {
+         return;
+      }
+      isAborted = true;
+      try {
+         channel.close();
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+      try {
+         Files.deleteIfExists(temp);
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+      buffer = null;
+   }
+
+   /**
+    * Appends the next composited frame.
+    * <br>
+    * Frames must be appended in order from 0. Otherwise the file is aborted.
+    * @param index
+    * @param pixels w * h ARGB pixels
+    */
+   public void append(int index, int[] pixels) {
+      if (isAborted) {
+         return;
+      }
+      long end = HEADER_SIZE + (index + 1) * (long) frameInts * 4L + (index + 1) * RECORD_INTS * 4L;
+      if (index != numFrames || end > maxBytes) {
+         abort();
+         return;
+      }
+      buffer.clear();
+      buffer.asIntBuffer().put(pixels, 0, frameInts);
+      try {
+         long pos = HEADER_SIZE + index * (long) frameInts * 4L;
+         while (buffer.hasRemaining()) {
+            pos += channel.write(buffer, pos);
+         }
+         numFrames++;
+      } catch (IOException e) {
+         e.printStackTrace();
+         abort();
+      }
+   }
+
+   /**
+    * Writes the timeline and the header, then gives the file its final name.
+    * @param frames all the frames of the animation, each appended
+    * @param loopCount
+    * @return false if the file was aborted
+    */
+   public boolean finish(List<ImageFrameGIF> frames, int loopCount) {
+      if (isAborted) {
+         return false;
+      }
+      if (frames.size() != numFrames || numFrames == 0) {
+         abort();
+         return false;
+      }
+      try {
+         ByteBuffer rec = ByteBuffer.allocate(numFrames * RECORD_INTS * 4).order(ByteOrder.LITTLE_ENDIAN);
+         for (int i = 0; i < numFrames; i++) {
+            GifFrameDescriptor fd = frames.get(i).getDescriptor();
+            rec.putInt(fd.getX());
+            rec.putInt(fd.getY());
+            rec.putInt(fd.getW());
+            rec.putInt(fd.getH());
+            rec.putInt(fd.getDelay());
+            rec.putInt(fd.getDisposal());
+            rec.putInt(fd.getTransparentIndex());
+            int flags = 0;
+            if (fd.isInterlaced()) {
+               flags |= FLAG_INTERLACED;
+            }
+            if (fd.isLocalColorTable()) {
+               flags |= FLAG_LOCAL_TABLE;
+            }
+            rec.putInt(flags);
+            rec.putInt(fd.getDataOffset());
+            rec.putInt(fd.getDataEnd());
+         }
+         rec.flip();
+         long pos = HEADER_SIZE + numFrames * (long) frameInts * 4L;
+         while (rec.hasRemaining()) {
+            pos += channel.write(rec, pos);
+         }
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+         header.putInt(MAGIC);
+         header.putInt(VERSION);
+         header.putInt(w);
+         header.putInt(h);
+         header.putInt(loopCount);
+         header.putInt(numFrames);
+         header.position(0);
+         pos = 0;
+         while (header.hasRemaining()) {
+            pos += channel.write(header, pos);
+         }
+         channel.close();
+         try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+         } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+         }
+         temp = null;
+         buffer = null;
+         return true;
+      } catch (IOException e) {
+         e.printStackTrace();
+         abort();
+         return false;
+      }
+   }
+
+   /**
+    * Copies the composited frame into dest
+    * @param index
+    * @param dest array of at least w * h ARGB pixels
+    */
+   public void get(int index, int[] dest) {
+      IntBuffer buf = framesInts.duplicate();
+      buf.position(index * frameInts);
+      buf.get(dest, 0, frameInts);
+   }
+
+   /**
+    * Descriptor of the frame as recorded in the timeline.
+    * <br>
+    * It has no color table. Frames are never decoded from a cache file.
+    * @param index
+    * @return
+    */
+   public GifFrameDescriptor getDescriptor(int index) {
+      int p = index * RECORD_INTS;
+      IntBuffer r = records;
+      GifFrameDescriptor fd = new GifFrameDescriptor(imgc);
+      fd.setRect(r.get(p), r.get(p + 1), r.get(p + 2), r.get(p + 3));
+      fd.setGraphicControl(r.get(p + 4), r.get(p + 5), r.get(p + 6));
+      int flags = r.get(p + 7);
+      fd.setInterlaced((flags & FLAG_INTERLACED) != 0);
+      fd.setColorTable(null, (flags & FLAG_LOCAL_TABLE) != 0);
+      fd.setData(r.get(p + 8), r.get(p + 9));
+      return fd;
+   }
+
+   public int getHeight() {
+      return h;
+   }
+
+   public int getLoopCount() {
+      return loopCount;
+   }
+
+   public int getNumFrames() {
+      return numFrames;
+   }
+
+   public Path getPath() {
+      return path;
+   }
+
+   public int getWidth() {
+      return w;
+   }
+
+   public boolean isAborted() {
+      return isAborted;
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "GifCacheFile");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "GifCacheFile");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("path", path.toString());
+      dc.appendVarWithSpace("w", w);
+      dc.appendVarWithSpace("h", h);
+      dc.appendVarWithSpace("numFrames", numFrames);
+      dc.appendVarWithSpace("loopCount", loopCount);
+      dc.appendVarWithSpace("isWriting", temp != null);
+      dc.appendVarWithSpace("isAborted", isAborted);
+   }
+   //#enddebug
+
+}
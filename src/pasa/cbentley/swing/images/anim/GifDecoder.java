@@ -0,0 +1,431 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Pure Java reader of the GIF block structure.
+ * <br>
+ * <br>
+ * Replaces the ImageIO path which builds a new TYPE_BYTE_INDEXED {@link java.awt.image.BufferedImage} for each frame.
+ * Here the palette indices of a frame are decompressed into a reusable byte array and then expanded
+ * through the color table directly into an int ARGB raster with {@link GifDecoder#expand(GifFrameDescriptor, byte[], int[], int, int, int, int)}.
+ * <br>
+ * <br>
+ * Usage
+ * <li>{@link GifDecoder#readHeader()}
+ * <li>{@link GifDecoder#nextFrame()} until null
+ * <li>{@link GifDecoder#decodeIndices(GifFrameDescriptor, byte[])} for the frames to be drawn
+ * <br>
+ * <br>
+ * The source {@link ByteBuffer} is duplicated. Caller's position is not modified.
+ * @author Charles Bentley
+ *
+ */
+public class GifDecoder implements IStringable {
+
+   private static final int   BLOCK_EXTENSION       = 0x21;
+
+   private static final int   BLOCK_IMAGE           = 0x2C;
+
+   private static final int   BLOCK_TRAILER         = 0x3B;
+
+   private static final int   EXT_APPLICATION       = 0xFF;
+
+   private static final int   EXT_GRAPHIC_CONTROL   = 0xF9;
+
+   private int                backgroundIndex;
+
+   private int[]              globalColorTable;
+
+   protected final ImgCtx     imgc;
+
+   private boolean            isTrailerReached;
+
+   private int                loopCount             = -1;
+
+   private GifLZWDecoder      lzw;
+
+   private int                numFramesRead;
+
+   private int                pendingDelay;
+
+   private int                pendingDisposal;
+
+   private int                pendingTransparent    = -1;
+
+   private int                screenHeight;
+
+   private int                screenWidth;
+
+   private final ByteBuffer   src;
+
+   /**
+    *
+    * @param imgc
+    * @param source positioned at the start of the GIF header
+    */
+   public GifDecoder(ImgCtx imgc, ByteBuffer source) {
+      this.imgc = imgc;
+      this.src = source.duplicate();
+      this.src.order(ByteOrder.LITTLE_ENDIAN);
+   }
+
+   /**
+    * Decompress the palette indices of the frame.
+    * @param fd
+    * @param reuse array reused if big enough. may be null
+    * @return array with at least {@link GifFrameDescriptor#getNumPixels()} indices
+    */
+   public byte[] decodeIndices(GifFrameDescriptor fd, byte[] reuse) {
+      if (lzw == null) {
+         lzw = new GifLZWDecoder();
+      }
+      return decodeIndices(fd, reuse, lzw);
+   }
+
+   /**
+    * Decompress with the given {@link GifLZWDecoder}.
+    * <br>
+    * Thread safe as long as each thread uses its own lzw instance. Used by {@link GifIndicesTask}
+    * @param fd
+    * @param reuse array reused if big enough. may be null
+    * @param lzw
+    * @return
+    */
+   public byte[] decodeIndices(GifFrameDescriptor fd, byte[] reuse, GifLZWDecoder lzw) {
+      int npix = fd.getNumPixels();
+      byte[] dest = reuse;
+      if (dest == null || dest.length < npix) {
+         dest = new byte[npix];
+      }
+      lzw.decode(src, fd, dest);
+      return dest;
+   }
+
+   /**
+    * Expands the palette indices of the frame through its color table into an ARGB int raster.
+    * <br>
+    * <br>
+    * Transparent indices are skipped, leaving dest pixels untouched. Pixels outside the raster are clipped.
+    * Interlaced rows are written at their display line.
+    * @param fd
+    * @param indices
+    * @param dest int ARGB raster with a scanline of destW
+    * @param destW
+    * @param destH
+    * @param dx x coordinate in dest of the frame top left pixel
+    * @param dy y coordinate in dest of the frame top left pixel
+    */
+   public static void expand(GifFrameDescriptor fd, byte[] indices, int[] dest, int destW, int destH, int dx, int dy) {
+      int fw = fd.getW();
+      int fh = fd.getH();
+      int x0 = Math.max(0, -dx);
+      int x1 = Math.min(fw, destW - dx);
+      if (x0 >= x1) {
+         return;
+      }
+      if (fd.isInterlaced()) {
+         int row = 0;
+         row = expandPass(fd, indices, dest, destW, destH, dx, dy, x0, x1, row, 0, 8);
+         row = expandPass(fd, indices, dest, destW, destH, dx, dy, x0, x1, row, 4, 8);
+         row = expandPass(fd, indices, dest, destW, destH, dx, dy, x0, x1, row, 2, 4);
+         expandPass(fd, indices, dest, destW, destH, dx, dy, x0, x1, row, 1, 2);
+      } else {
+         expandPass(fd, indices, dest, destW, destH, dx, dy, x0, x1, 0, 0, 1);
+      }
+   }
+
+   /**
+    * Copies the palette indices of the frame with rows in display order.
+    * <br>
+    * Interlaced rows are moved to their display line. Other frames are copied as is.
+    * @param fd
+    * @param indices as decoded by {@link GifDecoder#decodeIndices(GifFrameDescriptor, byte[])}
+    * @param dest array of at least {@link GifFrameDescriptor#getNumPixels()} bytes
+    */
+   public static void deinterlace(GifFrameDescriptor fd, byte[] indices, byte[] dest) {
+      int fw = fd.getW();
+      int fh = fd.getH();
+      if (!fd.isInterlaced()) {
+         System.arraycopy(indices, 0, dest, 0, fw * fh);
+         return;
+      }
+      int row = 0;
+      row = deinterlacePass(indices, dest, fw, fh, row, 0, 8);
+      row = deinterlacePass(indices, dest, fw, fh, row, 4, 8);
+      row = deinterlacePass(indices, dest, fw, fh, row, 2, 4);
+      deinterlacePass(indices, dest, fw, fh, row, 1, 2);
+   }
+
+   private static int deinterlacePass(byte[] indices, byte[] dest, int fw, int fh, int row, int start, int step) {
+      for (int line = start; line < fh; line += step, row++) {
+         System.arraycopy(indices, row * fw, dest, line * fw, fw);
+      }
+      return row;
+   }
+
+   private static int expandPass(GifFrameDescriptor fd, byte[] indices, int[] dest, int destW, int destH, int dx, int dy, int x0, int x1, int row, int start, int step) {
+      final int[] colors = fd.getColorTable();
+      final int trans = fd.getTransparentIndex();
+      final int fw = fd.getW();
+      final int fh = fd.getH();
+      for (int line = start; line < fh; line += step, row++) {
+         int y = dy + line;
+         if (y < 0 || y >= destH) {
+            continue;
+         }
+         int srcIndex = row * fw + x0;
+         int destIndex = y * destW + dx + x0;
+         for (int x = x0; x < x1; x++) {
+            int c = indices[srcIndex++] & 0xFF;
+            if (c != trans) {
+               dest[destIndex] = colors[c];
+            }
+            destIndex++;
+         }
+      }
+      return row;
+   }
+
+   public int getBackgroundIndex() {
+      return backgroundIndex;
+   }
+
+   /**
+    *
+    * @return null if GIF has no global color table
+    */
+   public int[] getGlobalColorTable() {
+      return globalColorTable;
+   }
+
+   /**
+    * Loop count of the NETSCAPE2.0 (or ANIMEXTS1.0) application extension, once read.
+    * @return 0 for infinite, -1 if not defined
+    */
+   public int getLoopCount() {
+      return loopCount;
+   }
+
+   /**
+    * Number of frames returned so far by {@link GifDecoder#nextFrame()}
+    * @return
+    */
+   public int getNumFramesRead() {
+      return numFramesRead;
+   }
+
+   public int getScreenHeight() {
+      return screenHeight;
+   }
+
+   public int getScreenWidth() {
+      return screenWidth;
+   }
+
+   public boolean isTrailerReached() {
+      return isTrailerReached;
+   }
+
+   /**
+    * Reads blocks until the next image block.
+    * <br>
+    * The LZW data is skipped. Its position is stored in the returned {@link GifFrameDescriptor}.
+    * @return null when the trailer or the end of data is reached
+    * @throws IOException when data is malformed
+    */
+   public GifFrameDescriptor nextFrame() throws IOException {
+      if (isTrailerReached) {
+         return null;
+      }
+      try {
+         while (src.hasRemaining()) {
+            int block = src.get() & 0xFF;
+            if (block == BLOCK_IMAGE) {
+               return readImageBlock();
+            } else if (block == BLOCK_EXTENSION) {
+               readExtension();
+            } else if (block == BLOCK_TRAILER) {
+               break;
+            } else {
+               throw new IOException("Unknown GIF block 0x" + Integer.toHexString(block) + " at " + (src.position() - 1));
+            }
+         }
+      } catch (BufferUnderflowException e) {
+         throw new IOException("Unexpected end of GIF data at frame " + numFramesRead);
+      } catch (IllegalArgumentException e) {
+         //sub block size pointing past the end of data
+         throw new IOException("Unexpected end of GIF data at frame " + numFramesRead);
+      }
+      isTrailerReached = true;
+      return null;
+   }
+
+   private int[] readColorTable(int numColors) {
+      int[] table = new int[256];
+      for (int i = 0; i < numColors; i++) {
+         int r = src.get() & 0xFF;
+         int g = src.get() & 0xFF;
+         int b = src.get() & 0xFF;
+         table[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+      }
+      return table;
+   }
+
+   /**
+    * Reads the GIF signature, the Logical Screen Descriptor and the global color table.
+    * @throws IOException if not a GIF
+    */
+   public void readHeader() throws IOException {
+      try {
+         byte[] sig = new byte[6];
+         src.get(sig);
+         if (sig[0] != 'G' || sig[1] != 'I' || sig[2] != 'F') {
+            throw new IOException("Not a GIF");
+         }
+         screenWidth = src.getShort() & 0xFFFF;
+         screenHeight = src.getShort() & 0xFFFF;
+         int packed = src.get() & 0xFF;
+         backgroundIndex = src.get() & 0xFF;
+         src.get(); //pixel aspect ratio
+         if ((packed & 0x80) != 0) {
+            globalColorTable = readColorTable(2 << (packed & 0x07));
+         }
+      } catch (BufferUnderflowException e) {
+         throw new IOException("Truncated GIF header");
+      }
+   }
+
+   private void readExtension() {
+      int label = src.get() & 0xFF;
+      if (label == EXT_GRAPHIC_CONTROL) {
+         int size = src.get() & 0xFF;
+         int end = src.position() + size;
+         int packed = src.get() & 0xFF;
+         pendingDelay = src.getShort() & 0xFFFF;
+         int trans = src.get() & 0xFF;
+         pendingDisposal = (packed >> 2) & 0x07;
+         pendingTransparent = ((packed & 0x01) != 0) ? trans : -1;
+         src.position(end);
+      } else if (label == EXT_APPLICATION) {
+         int size = src.get() & 0xFF;
+         int end = src.position() + size;
+         boolean isLoop = size == 11 && (isAppIdentifier("NETSCAPE2.0") || isAppIdentifier("ANIMEXTS1.0"));
+         src.position(end);
+         if (isLoop) {
+            //sub block [3, 1, count lo, count hi]
+            int subSize = src.get() & 0xFF;
+            if (subSize == 0) {
+               return;
+            }
+            int subEnd = src.position() + subSize;
+            if (subSize >= 3 && (src.get() & 0x07) == 1) {
+               loopCount = src.getShort() & 0xFFFF;
+            }
+            src.position(subEnd);
+         }
+      }
+      skipSubBlocks();
+   }
+
+   private boolean isAppIdentifier(String id) {
+      int pos = src.position();
+      for (int i = 0; i < 11; i++) {
+         if (src.get(pos + i) != id.charAt(i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private GifFrameDescriptor readImageBlock() {
+      GifFrameDescriptor fd = new GifFrameDescriptor(imgc);
+      int x = src.getShort() & 0xFFFF;
+      int y = src.getShort() & 0xFFFF;
+      int w = src.getShort() & 0xFFFF;
+      int h = src.getShort() & 0xFFFF;
+      int packed = src.get() & 0xFF;
+      fd.setRect(x, y, w, h);
+      fd.setInterlaced((packed & 0x40) != 0);
+      if ((packed & 0x80) != 0) {
+         fd.setColorTable(readColorTable(2 << (packed & 0x07)), true);
+      } else if (globalColorTable != null) {
+         fd.setColorTable(globalColorTable, false);
+      } else {
+         //no color table at all. use a grey ramp as suggested by the spec
+         int[] grey = new int[256];
+         for (int i = 0; i < grey.length; i++) {
+            grey[i] = 0xFF000000 | (i << 16) | (i << 8) | i;
+         }
+         globalColorTable = grey;
+         fd.setColorTable(grey, false);
+      }
+      fd.setGraphicControl(pendingDelay, pendingDisposal, pendingTransparent);
+      int dataOffset = src.position();
+      src.get(); //LZW minimum code size
+      skipSubBlocks();
+      fd.setData(dataOffset, src.position());
+
+      //a GCE applies to the next image only
+      pendingDelay = 0;
+      pendingDisposal = 0;
+      pendingTransparent = -1;
+      numFramesRead++;
+      return fd;
+   }
+
+   private void skipSubBlocks() {
+      int size = src.get() & 0xFF;
+      while (size != 0) {
+         src.position(src.position() + size);
+         size = src.get() & 0xFF;
+      }
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "GifDecoder");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "GifDecoder");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("screenWidth", screenWidth);
+      dc.appendVarWithSpace("screenHeight", screenHeight);
+      dc.appendVarWithSpace("backgroundIndex", backgroundIndex);
+      dc.appendVarWithSpace("numFramesRead", numFramesRead);
+      dc.appendVarWithSpace("loopCount", loopCount);
+      dc.appendVarWithSpace("isTrailerReached", isTrailerReached);
+      dc.appendVarWithSpace("position", src.position());
+   }
+   //#enddebug
+
+}
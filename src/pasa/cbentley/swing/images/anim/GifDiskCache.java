@@ -0,0 +1,166 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Directory of {@link GifCacheFile}s, one per GIF content.
+ * <br>
+ * <br>
+ * A file is keyed by the SHA-256 of the GIF source bytes, so a renamed or copied GIF hits the same entry,
+ * while an edited one misses.
+ * <br>
+ * Files are written by a {@link GifEnginePlayOnly} at the end of its first pass, and memory mapped the next
+ * time the same content is given as source. The engine then plays and seeks without decoding.
+ * <br>
+ * A single directory may be shared by all the engines of the application.
+ * @author Charles Bentley
+ *
+ */
+public class GifDiskCache implements IStringable {
+
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+   private final Path          dir;
+
+   protected final ImgCtx      imgc;
+
+   /**
+    * Animations whose composited frames are larger are not written
+    */
+   private long                maxFileBytes;
+
+   /**
+    *
+    * @param imgc
+    * @param dir created if it does not exist
+    * @param maxFileBytes maximum size of a single cache file
+    */
+   public GifDiskCache(ImgCtx imgc, Path dir, long maxFileBytes) {
+      this.imgc = imgc;
+      this.dir = dir;
+      this.maxFileBytes = Math.min(maxFileBytes, Integer.MAX_VALUE);
+   }
+
+   /**
+    * Starts a new cache file for the content key
+    * @param key
+    * @param w width of the logical screen
+    * @param h height of the logical screen
+    * @return null if the directory cannot be written
+    */
+   public GifCacheFile createWriter(String key, int w, int h) {
+      try {
+         Files.createDirectories(dir);
+         return GifCacheFile.create(imgc, getPath(key), w, h, maxFileBytes);
+      } catch (IOException e) {
+         e.printStackTrace();
+         return null;
+      }
+   }
+
+   public Path getDir() {
+      return dir;
+   }
+
+   /**
+    * SHA-256 of the source bytes from position to limit, in hexadecimal
+    * @param source position is not modified
+    * @return
+    */
+   public String getKey(ByteBuffer source) {
+      try {
+         MessageDigest md = MessageDigest.getInstance("SHA-256");
+         md.update(source.duplicate());
+         byte[] digest = md.digest();
+         char[] hex = new char[digest.length * 2];
+         for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX[digest[i] & 0x0F];
+         }
+         return new String(hex);
+      } catch (NoSuchAlgorithmException e) {
+         //every JRE must provide SHA-256
+         throw new RuntimeException(e);
+      }
+   }
+
+   public long getMaxFileBytes() {
+      return maxFileBytes;
+   }
+
+   private Path getPath(String key) {
+      return dir.resolve(key + GifCacheFile.EXTENSION);
+   }
+
+   /**
+    * Maps the cache file of the content key
+    * @param key
+    * @param w expected width of the logical screen
+    * @param h expected height
+    * @return null when there is no valid file for that key
+    */
+   public GifCacheFile open(String key, int w, int h) {
+      Path path = getPath(key);
+      if (!Files.isRegularFile(path)) {
+         return null;
+      }
+      try {
+         GifCacheFile file = GifCacheFile.open(imgc, path);
+         if (file.getWidth() != w || file.getHeight() != h) {
+            return null;
+         }
+         return file;
+      } catch (IOException e) {
+         //truncated or older format. it will be written again
+         return null;
+      }
+   }
+
+   public void setMaxFileBytes(long maxFileBytes) {
+      this.maxFileBytes = Math.min(maxFileBytes, Integer.MAX_VALUE);
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "GifDiskCache");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "GifDiskCache");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("dir", dir.toString());
+      dc.appendVarWithSpace("maxFileBytes", maxFileBytes);
+   }
+   //#enddebug
+
+}
@@ -0,0 +1,176 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Compiled disposal of each frame of a GIF, stored in primitive arrays.
+ * <br>
+ * <br>
+ * Built once per frame, when the frame is read. Replays of the animation execute the plan
+ * with a switch on {@link GifDisposalPlan#getOp(int)}, without looking at the frames.
+ * <li> {@link GifDisposalPlan#OP_0_NONE} for disposal 0, 1 and the undefined codes 4 to 7
+ * <li> {@link GifDisposalPlan#OP_1_CLEAR} for restoreToBackgroundColor
+ * <li> {@link GifDisposalPlan#OP_2_RESTORE} for restoreToPrevious. The engine saves the rectangle before drawing the frame
+ * <br>
+ * Rectangles are clipped to the logical screen so they can be used directly on the master raster.
+ * @author Charles Bentley
+ *
+ */
+public class GifDisposalPlan implements IStringable {
+
+   /**
+    * Frame is left in place
+    */
+   public static final int OP_0_NONE    = 0;
+
+   /**
+    * Frame rectangle is cleared to transparent
+    */
+   public static final int OP_1_CLEAR   = 1;
+
+   /**
+    * Frame rectangle is restored to what was there before the frame was drawn
+    */
+   public static final int OP_2_RESTORE = 2;
+
+   protected final ImgCtx  imgc;
+
+   private int[]           ops;
+
+   /**
+    * x, y, w, h of each frame clipped to the screen
+    */
+   private int[]           rects;
+
+   private final int       screenH;
+
+   private final int       screenW;
+
+   private int             size;
+
+   /**
+    * 
+    * @param imgc
+    * @param screenW width of the master raster
+    * @param screenH height of the master raster
+    */
+   public GifDisposalPlan(ImgCtx imgc, int screenW, int screenH) {
+      this.imgc = imgc;
+      this.screenW = screenW;
+      this.screenH = screenH;
+      ops = new int[8];
+      rects = new int[8 * 4];
+   }
+
+   /**
+    * Compiles the disposal of the next frame
+    * @param disposal raw GCE disposal code
+    * @param x
+    * @param y
+    * @param w
+    * @param h
+    */
+   public void add(int disposal, int x, int y, int w, int h) {
+      if (size == ops.length) {
+         ensureCapacity(size * 2);
+      }
+      int i = size;
+      int op = OP_0_NONE;
+      if (disposal == 2) {
+         op = OP_1_CLEAR;
+      } else if (disposal == 3) {
+         op = OP_2_RESTORE;
+      }
+      ops[i] = op;
+      int x0 = Math.max(0, x);
+      int y0 = Math.max(0, y);
+      int x1 = Math.min(screenW, x + w);
+      int y1 = Math.min(screenH, y + h);
+      int r = i * 4;
+      rects[r] = x0;
+      rects[r + 1] = y0;
+      rects[r + 2] = Math.max(0, x1 - x0);
+      rects[r + 3] = Math.max(0, y1 - y0);
+      size++;
+   }
+
+   private void ensureCapacity(int capacity) {
+      int[] newOps = new int[capacity];
+      int[] newRects = new int[capacity * 4];
+      System.arraycopy(ops, 0, newOps, 0, size);
+      System.arraycopy(rects, 0, newRects, 0, size * 4);
+      ops = newOps;
+      rects = newRects;
+   }
+
+   public int getH(int index) {
+      return rects[index * 4 + 3];
+   }
+
+   public int getOp(int index) {
+      return ops[index];
+   }
+
+   public int getSize() {
+      return size;
+   }
+
+   public int getW(int index) {
+      return rects[index * 4 + 2];
+   }
+
+   public int getX(int index) {
+      return rects[index * 4];
+   }
+
+   public int getY(int index) {
+      return rects[index * 4 + 1];
+   }
+
+   /**
+    * Called when all frames are known
+    */
+   public void trim() {
+      if (size != ops.length) {
+         ensureCapacity(size);
+      }
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "GifDisposalPlan");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "GifDisposalPlan");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("size", size);
+      dc.appendVarWithSpace("screenW", screenW);
+      dc.appendVarWithSpace("screenH", screenH);
+   }
+   //#enddebug
+
+}
@@ -4,37 +4,72 @@
  */
 package pasa.cbentley.swing.images.anim;
 
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
 import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Iterator;
-
-import javax.imageio.ImageIO;
-import javax.imageio.ImageReader;
-import javax.imageio.metadata.IIOMetadata;
-import javax.imageio.metadata.IIOMetadataNode;
-import javax.imageio.stream.ImageInputStream;
-
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.interfaces.ICallBack;
 import pasa.cbentley.core.src4.io.BAByteOS;
 import pasa.cbentley.core.src4.logging.Dctx;
 import pasa.cbentley.core.src4.logging.IDLog;
 import pasa.cbentley.core.src4.logging.IStringable;
 import pasa.cbentley.core.src4.logging.ITechLvl;
 import pasa.cbentley.swing.images.ctx.ImgCtx;
+import pasa.cbentley.swing.images.interfaces.ITechGifEngine;
 import pasa.cbentley.swing.images.utils.WritableBufferedImage;
 
 /**
- * Read {@link ImageFrameGIF} from {@link InputStream} -> {@link ImageReader}.
+ * Read {@link ImageFrameGIF} from {@link InputStream}.
+ * <br>
+ * Files given as {@link Path} or {@link FileChannel} are memory mapped and decoded in place.
+ * <br>
+ * Pixels are decoded by {@link GifDecoder} directly into the int raster of the master image.
+ * Frame metadata is read from the same GIF blocks into primitive fields. No ImageIO reader and no DOM.
  * <br>
  * The frames are kept in memory for further reading.
  * <br>
+ * <br>
+ * Random access to a frame after the first pass is bounded by composited checkpoints taken every
+ * {@link GifEnginePlayOnly#setCheckpointInterval(int)} frames. Reaching frame N restores the nearest checkpoint
+ * before N and replays at most interval - 1 frames with their disposals.
+ * The memory used by checkpoints is bounded by {@link GifEnginePlayOnly#setCheckpointBudget(long)}
+ * <br>
+ * <br>
+ * Composited frames are kept in a {@link GifFrameCache} bounded by {@link GifEnginePlayOnly#setCacheBudget(long)}.
+ * Small GIFs are played from the cache without compositing, larger ones are recomposited from checkpoints
+ * for the frames that do not fit.
+ * <br>
+ * <br>
+ * With {@link ITechGifEngine#STORE_1_STREAMING}, nothing is retained per frame beside its metadata.
+ * Frames are decoded again from the compressed source on each loop.
+ * <br>
+ * With {@link ITechGifEngine#STORE_2_INDEXED}, frames and checkpoints are kept as byte palette indices.
+ * <br>
+ * With {@link ITechGifEngine#STORE_3_COMPRESSED}, frames are kept compressed in the source and decoded on demand
+ * behind a small {@link GifIndicesCache}.
+ * <br>
+ * <br>
+ * With a {@link GifDiskCache}, the composited frames of the first pass are written to a {@link GifCacheFile}.
+ * The next time the same content is set as source, that file is memory mapped and the animation is seekable
+ * right away, without any decoding.
+ * <br>
  * This class state is never accessed from the AWT thread.
  * @author Charles Bentley
  *
@@ -43,23 +78,148 @@ public class GifEnginePlayOnly implements IStringable {
 
    private int                   frameIndex                    = 0;
 
+   /**
+    * Composited ARGB pixels of the master image, indexed by frame index. null when no checkpoint for that frame
+    */
+   private int[][]               checkpoints                   = new int[2][];
+
+   /**
+    * Checkpoints encoded in {@link GifEnginePlayOnly#palette}. At most one of checkpoints[i] and checkpointsIndexed[i] is set
+    */
+   private byte[][]              checkpointsIndexed            = new byte[2][];
+
+   /**
+    * Shared by indexed checkpoints. Created in {@link ITechGifEngine#STORE_2_INDEXED}
+    */
+   private GifPalette            palette;
+
+   /**
+    * Last color model created for an indexed root image. Frames of the global color table share it
+    */
+   private IndexColorModel       rootColorModel;
+
+   private int[]                 rootColorModelTable;
+
+   private int                   rootColorModelTrans;
+
+   /**
+    * Maximum number of bytes used by checkpoints. 0 for no limit
+    */
+   private long                  checkpointBudget              = 32 * 1024 * 1024;
+
+   private long                  checkpointBytes;
+
+   /**
+    * A checkpoint is taken every interval frames. Doubled when the budget is exceeded
+    */
+   private int                   checkpointInterval            = 8;
+
+   /**
+    * Index of the frame currently composited in the master image. -1 when master is cleared or unknown
+    */
+   private int                   masterFrameIndex              = -1;
+
+   private GifDecoder            decoder;
+
+   /**
+    * Source given to the decoder. Its position is never modified
+    */
+   private ByteBuffer            sourceBuffer;
+
+   /**
+    * Size of {@link GifEnginePlayOnly#frames}, published for the threads that do not play
+    */
+   private volatile int          numFramesLoaded;
+
+   /**
+    * Number of frames counted by {@link GifEnginePlayOnly#scanNumFrames()}. -1 when not known
+    */
+   private volatile int          numFramesScanned              = -1;
+
+   /**
+    * Scratch buffer for the palette indices of the frame being decoded
+    */
+   private byte[]                indices;
+
+   /**
+    * Rectangle of master saved before drawing the last restoreToPrevious frame, with a scanline of the rectangle width.
+    * <br>
+    * Reused for every restoreToPrevious frame. Grows to the largest rectangle
+    */
+   private int[]                 snapshot;
+
+   /**
+    * Frame whose rectangle is in {@link GifEnginePlayOnly#snapshot}. -1 if none
+    */
+   private int                   snapshotFrame                 = -1;
+
+   /**
+    * Disposal of each frame read so far
+    */
+   private GifDisposalPlan       plan;
+
+   /**
+    * {@link ITechGifEngine#STORE_0_ROOT_IMAGES} to {@link ITechGifEngine#STORE_3_COMPRESSED}
+    */
+   private int                   storeMode                     = ITechGifEngine.STORE_0_ROOT_IMAGES;
+
    //builds a list of frame metadata as we play each frames
    private ArrayList<ImageFrameGIF>   frames                        = new ArrayList<ImageFrameGIF>(2);
 
    private ImgCtx                imgc;
 
-   private boolean               isEndReachedAtLeastOnce       = false;
+   private volatile boolean      isEndReachedAtLeastOnce       = false;
 
    /**
-    * Computes the size in memory.. if over a threshold, images are dropped
+    * Composited frames. Frames not in the cache are recomposited in the master image
     */
-   private boolean               isImageReload;
+   private GifFrameCache         cache;
+
+   /**
+    * Decoded frames in {@link ITechGifEngine#STORE_3_COMPRESSED}
+    */
+   private GifIndicesCache       indicesCache;
+
+   /**
+    * Off heap store of the composited frames that do not fit in the {@link GifEnginePlayOnly#cache}. Created when spillBudget is not 0
+    */
+   private GifFrameSpill         spill;
+
+   private long                  spillBudget;
+
+   /**
+    * Persistent cache of composited animations. May be null
+    */
+   private GifDiskCache          diskCache;
+
+   /**
+    * Mapped cache file of the current source. Every frame is read from it
+    */
+   private GifCacheFile          diskFile;
+
+   /**
+    * Receives the composited frames of the first pass when the source was not in the {@link GifDiskCache}
+    */
+   private GifCacheFile          diskWriter;
 
    private int                   frameIndexOfLastFullFrameSeen = 0;
 
+   /**
+    * Images of the snapshots handed to consumers. Created with the first snapshot
+    */
+   private FrameSnapshotPool     snapshotPool;
+
+   /**
+    * Last snapshot handed out. The engine holds a reference so that asking again for the same frame does not copy
+    */
+   private FrameSnapshot         snapshotLast;
+
    private WritableBufferedImage masterImage                   = null;
 
-   private ImageReader           reader;
+   /**
+    * Netscape loop count. 0 for infinite. -1 when GIF has no loop extension
+    */
+   private int                   loopCount                     = -1;
 
    private int                   rootHeight                    = -1;
 
@@ -67,173 +227,547 @@ public class GifEnginePlayOnly implements IStringable {
 
    public GifEnginePlayOnly(ImgCtx imgc) {
       this.imgc = imgc;
+      cache = new GifFrameCache(imgc, 16 * 1024 * 1024, ITechGifEngine.CACHE_POLICY_1_PIN);
+      indicesCache = new GifIndicesCache(imgc, 1024 * 1024);
    }
 
-   public void initMetaData() throws IOException {
-      IIOMetadata metadata = reader.getStreamMetadata();
-      if (metadata != null) {
-         IIOMetadataNode globalRoot = (IIOMetadataNode) metadata.getAsTree(metadata.getNativeMetadataFormatName());
-
-         NodeList globalScreenDescriptor = globalRoot.getElementsByTagName("LogicalScreenDescriptor");
-
-         if (globalScreenDescriptor != null && globalScreenDescriptor.getLength() > 0) {
-            IIOMetadataNode screenDescriptor = (IIOMetadataNode) globalScreenDescriptor.item(0);
-
-            if (screenDescriptor != null) {
-               rootWidth = Integer.parseInt(screenDescriptor.getAttribute("logicalScreenWidth"));
-               rootHeight = Integer.parseInt(screenDescriptor.getAttribute("logicalScreenHeight"));
-            }
-         }
-      }
+   /**
+    * Reads the size of the logical screen from the header already parsed by the {@link GifDecoder}
+    */
+   public void initMetaData() {
+      rootWidth = decoder.getScreenWidth();
+      rootHeight = decoder.getScreenHeight();
    }
 
    /**
     * Once a FrameGIF is built.. you only needs to either reload
     * or painted it accordingly.
     * @param frameIndex
-    * @param img
+    * @param fd
+    * @param indices decoded palette indices of the frame
     * @return
-    * @throws IOException
     */
-   private ImageFrameGIF buildFrameGIF(int frameIndex, BufferedImage img) throws IOException {
+   private ImageFrameGIF buildFrameGIF(int frameIndex, GifFrameDescriptor fd, byte[] indices) {
       if (frameIndex < frames.size()) {
          return frames.get(frameIndex);
       }
-      IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(frameIndex).getAsTree("javax_imageio_gif_image_1.0");
-      IIOMetadataNode gce = (IIOMetadataNode) root.getElementsByTagName("GraphicControlExtension").item(0);
-      int delay = Integer.valueOf(gce.getAttribute("delayTime"));
-      //System.out.println("#GifEngine#delay = " + delay);
-      String disposal = gce.getAttribute("disposalMethod");
-
-      int x = 0;
-      int y = 0;
-      NodeList children = root.getChildNodes();
-      for (int nodeIndex = 0; nodeIndex < children.getLength(); nodeIndex++) {
-         Node nodeItem = children.item(nodeIndex);
-         if (nodeItem.getNodeName().equals("ImageDescriptor")) {
-            NamedNodeMap map = nodeItem.getAttributes();
-            x = Integer.valueOf(map.getNamedItem("imageLeftPosition").getNodeValue());
-            y = Integer.valueOf(map.getNamedItem("imageTopPosition").getNodeValue());
-         }
+      int disposal = fd.getDisposal();
+
+      int x = fd.getX();
+      int y = fd.getY();
+      int w = fd.getW();
+      int h = fd.getH();
+
+      ImageFrameGIF fg = createFrame(frameIndex, fd);
+
+      //what do we do with the previous frame?
+      if (frameIndex != 0 && masterImage != null) {
+         dispose(frameIndex - 1);
+      }
+
+      if (masterImage == null) {
+         //we at the first frame.. image with the size of the logical screen
+         int mw = rootWidth > 0 ? rootWidth : x + w;
+         int mh = rootHeight > 0 ? rootHeight : y + h;
+         masterImage = new WritableBufferedImage(mw, mh);
+      }
+      if (plan == null) {
+         plan = new GifDisposalPlan(imgc, masterImage.getWidth(), masterImage.getHeight());
       }
+      plan.add(disposal, x, y, w, h);
+
+      if (plan.getOp(frameIndex) == GifDisposalPlan.OP_2_RESTORE) {
+         snapshotSave(frameIndex);
+      }
+      //expand the palette indices straight into the master raster. no intermediate image
+      GifDecoder.expand(fd, indices, masterImage.getPixels(), masterImage.getWidth(), masterImage.getHeight(), x, y);
+      masterFrameIndex = frameIndex;
+      checkpointAdd(frameIndex);
+      if (diskWriter != null) {
+         diskWriter.append(frameIndex, masterImage.getPixels());
+      }
+
+      fg.setFrameImage(cacheMaster(frameIndex));
+
+      if (storeMode == ITechGifEngine.STORE_0_ROOT_IMAGES) {
+         //in the first pass.. we save the new image as root
+         BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+         int[] rootPixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+         GifDecoder.expand(fd, indices, rootPixels, w, h, 0, 0);
+         fg.setRootImage(img);
+      } else if (storeMode == ITechGifEngine.STORE_2_INDEXED) {
+         //indices array is reused by the decoder. keep an exact copy
+         fg.setRootIndices(Arrays.copyOf(indices, fd.getNumPixels()));
+      } else if (storeMode == ITechGifEngine.STORE_3_COMPRESSED) {
+         //the first pass has them for free. a short loop might never decode again
+         int npix = fd.getNumPixels();
+         byte[] decoded = indicesCache.take(npix);
+         System.arraycopy(indices, 0, decoded, 0, npix);
+         indicesCache.put(frameIndex, decoded);
+      }
+
+      return fg;
+   }
 
-      ImageFrameGIF fg = new ImageFrameGIF(imgc, this, delay, disposal, frameIndex);
-      fg.setX(x);
-      fg.setY(y);
-      fg.setH(img.getHeight());
-      fg.setW(img.getWidth());
+   /**
+    * Creates the frame with the fields of the descriptor and adds it to the frame list
+    * @param frameIndex
+    * @param fd
+    * @return
+    */
+   private ImageFrameGIF createFrame(int frameIndex, GifFrameDescriptor fd) {
+      ImageFrameGIF fg = new ImageFrameGIF(imgc, this, fd.getDelay(), fd.getDisposal(), frameIndex);
+      fg.setX(fd.getX());
+      fg.setY(fd.getY());
+      fg.setH(fd.getH());
+      fg.setW(fd.getW());
 
       fg.setLastFullFrame(frameIndexOfLastFullFrameSeen);
+      fg.setDescriptor(fd);
       frames.ensureCapacity(frameIndex);
       frames.add(frameIndex, fg);
+      numFramesLoaded = frames.size();
+      return fg;
+   }
 
-      //what do we do with the previous frame?
-      if (frameIndex != 0 && masterImage != null) {
-         int prevIndex = frameIndex - 1;
-         if (prevIndex < 0) {
-            prevIndex = frames.size() - 1;
+   private ImageFrameGIF buildFrameGIFAgain(int frameIndex) {
+      ImageFrameGIF fg = frames.get(frameIndex);
+      if (diskFile != null) {
+         //one copy from the mapped file. master is a plain buffer here, nothing is replayed from it
+         diskFile.get(frameIndex, masterImage.getPixels());
+         masterFrameIndex = -1;
+         fg.setFrameImage(masterImage.getImage());
+         return fg;
+      }
+      BufferedImage img = cache.get(frameIndex);
+      if (img == null) {
+         if (spill != null && spill.get(frameIndex, masterImage.getPixels())) {
+            //without its snapshot, a restoreToPrevious frame cannot be the start of a replay
+            masterFrameIndex = plan.getOp(frameIndex) == GifDisposalPlan.OP_2_RESTORE ? -1 : frameIndex;
+         } else {
+            composeTo(frameIndex);
          }
-         ImageFrameGIF fg1 = frames.get(prevIndex);
-
-         manageDisposal(fg1, masterImage);
+         img = cacheMaster(frameIndex);
       }
+      fg.setFrameImage(img);
+      return fg;
+   }
 
-      if (masterImage == null) {
-         //we at the first frame.. image with
-         masterImage = new WritableBufferedImage(img.getWidth(), img.getHeight());
+   /**
+    * Puts the master image in the cache as the composited frame index.
+    * <br>
+    * When not accepted, the frame is spilled if a spill budget is set.
+    * @param frameIndex
+    * @return the cached image, or the master image when not accepted by the cache
+    */
+   private BufferedImage cacheMaster(int frameIndex) {
+      if (storeMode == ITechGifEngine.STORE_1_STREAMING) {
+         return masterImage.getImage();
+      }
+      if (spill == null && spillBudget > 0) {
+         spill = new GifFrameSpill(imgc, masterImage.getWidth(), masterImage.getHeight(), spillBudget);
+         cache.setSpill(spill);
       }
+      BufferedImage img = cache.put(frameIndex, masterImage.getPixels(), masterImage.getWidth(), masterImage.getHeight());
+      if (img == null) {
+         if (spill != null) {
+            spill.put(frameIndex, masterImage.getPixels());
+         }
+         img = masterImage.getImage();
+      }
+      return img;
+   }
 
-      //if we draw on master. we cannot do restorToPrevious.
-      masterImage.drawImage(img, x, y);
+   /**
+    * Releases the spill file
+    */
+   private void spillClose() {
+      if (spill != null) {
+         spill.close();
+         spill = null;
+         cache.setSpill(null);
+      }
+   }
 
-      fg.setFrameImage(masterImage.getImage());
-      //we have to take the image and draw it
+   /**
+    * Takes a checkpoint of the master image if frameIndex is on the interval.
+    * <br>
+    * When the budget is exceeded, the interval is doubled and checkpoints not on the new interval are dropped.
+    * Frame 0 never needs one since it is composited from a cleared master.
+    * <br>
+    * For a restoreToPrevious frame, the snapshot of its rectangle is appended after the master pixels.
+    * <br>
+    * In {@link ITechGifEngine#STORE_2_INDEXED}, the checkpoint is encoded in the shared {@link GifPalette} when its colors fit.
+    * @param frameIndex index of the frame composited in master
+    */
+   private void checkpointAdd(int frameIndex) {
+      if (frameIndex == 0 || frameIndex % checkpointInterval != 0 || storeMode == ITechGifEngine.STORE_1_STREAMING) {
+         return;
+      }
+      int[] pixels = masterImage.getPixels();
+      int snapshotSize = 0;
+      if (snapshotFrame == frameIndex) {
+         snapshotSize = plan.getW(frameIndex) * plan.getH(frameIndex);
+      }
+      long bytes = (pixels.length + snapshotSize) * 4L;
+      byte[] indexed = null;
+      if (storeMode == ITechGifEngine.STORE_2_INDEXED) {
+         indexed = checkpointEncode(pixels, snapshotSize);
+         if (indexed != null) {
+            bytes = indexed.length;
+         }
+      }
+      while (checkpointBudget > 0 && checkpointBytes + bytes > checkpointBudget) {
+         if (checkpointBytes == 0) {
+            //a single checkpoint is over budget
+            return;
+         }
+         checkpointInterval *= 2;
+         checkpointThin();
+         if (frameIndex % checkpointInterval != 0) {
+            return;
+         }
+      }
+      if (frameIndex >= checkpoints.length) {
+         int newLength = Math.max(frameIndex + 1, checkpoints.length * 2);
+         int[][] newCheckpoints = new int[newLength][];
+         System.arraycopy(checkpoints, 0, newCheckpoints, 0, checkpoints.length);
+         checkpoints = newCheckpoints;
+         byte[][] newCheckpointsIndexed = new byte[newLength][];
+         System.arraycopy(checkpointsIndexed, 0, newCheckpointsIndexed, 0, checkpointsIndexed.length);
+         checkpointsIndexed = newCheckpointsIndexed;
+      }
+      if (indexed != null) {
+         if (checkpointsIndexed[frameIndex] == null && checkpoints[frameIndex] == null) {
+            checkpointsIndexed[frameIndex] = indexed;
+            checkpointBytes += bytes;
+         }
+      } else if (checkpoints[frameIndex] == null && checkpointsIndexed[frameIndex] == null) {
+         int[] checkpoint = new int[pixels.length + snapshotSize];
+         System.arraycopy(pixels, 0, checkpoint, 0, pixels.length);
+         if (snapshotSize != 0) {
+            System.arraycopy(snapshot, 0, checkpoint, pixels.length, snapshotSize);
+         }
+         checkpoints[frameIndex] = checkpoint;
+         checkpointBytes += bytes;
+      }
+   }
 
-      //in the first pass.. if we are in fullFrame doNotDispose. we save the new image as root
-      //its the equivalent in memory
-      fg.setRootImage(img);
+   /**
+    * Encodes master pixels and the snapshot in the shared palette
+    * @param pixels
+    * @param snapshotSize
+    * @return null when the colors do not fit in the palette
+    */
+   private byte[] checkpointEncode(int[] pixels, int snapshotSize) {
+      if (palette == null) {
+         palette = new GifPalette(imgc);
+      }
+      byte[] indexed = new byte[pixels.length + snapshotSize];
+      if (!palette.encode(pixels, 0, indexed, 0, pixels.length)) {
+         return null;
+      }
+      if (snapshotSize != 0 && !palette.encode(snapshot, 0, indexed, pixels.length, snapshotSize)) {
+         return null;
+      }
+      return indexed;
+   }
 
-      return fg;
+   /**
+    * Drops checkpoints that are not on the current interval
+    */
+   private void checkpointThin() {
+      for (int i = 0; i < checkpoints.length; i++) {
+         if (i % checkpointInterval != 0) {
+            if (checkpoints[i] != null) {
+               checkpointBytes -= checkpoints[i].length * 4L;
+               checkpoints[i] = null;
+            }
+            if (checkpointsIndexed[i] != null) {
+               checkpointBytes -= checkpointsIndexed[i].length;
+               checkpointsIndexed[i] = null;
+            }
+         }
+      }
    }
 
-   private ImageFrameGIF buildFrameGIFAgain(int frameIndex) throws IOException {
+   /**
+    * Index of the closest checkpoint at or before index
+    * @param index
+    * @return -1 if none, meaning the replay starts from a cleared master
+    */
+   private int checkpointBefore(int index) {
+      for (int i = Math.min(index, checkpoints.length - 1); i > 0; i--) {
+         if (checkpoints[i] != null || checkpointsIndexed[i] != null) {
+            return i;
+         }
+      }
+      return -1;
+   }
 
-      ImageFrameGIF fg = frames.get(frameIndex);
-      if (frameIndex == 0) {
+   /**
+    * Composites the frame at index on the master image.
+    * <br>
+    * <br>
+    * When master already holds an earlier frame closer than the nearest checkpoint, frames are composited from there.
+    * Otherwise the checkpoint is copied to master and the frames after it are replayed.
+    * @param index frame index. Root images must be known up to that frame
+    */
+   private void composeTo(int index) {
+      if (index == masterFrameIndex) {
+         return;
+      }
+      int start = checkpointBefore(index);
+      if (masterFrameIndex < index && masterFrameIndex >= start && masterFrameIndex != -1) {
+         start = masterFrameIndex;
+      } else if (start == -1) {
          masterImage.clear();
+      } else if (checkpointsIndexed[start] != null) {
+         byte[] checkpoint = checkpointsIndexed[start];
+         int[] pixels = masterImage.getPixels();
+         palette.decode(checkpoint, 0, pixels, 0, pixels.length);
+         int snapshotSize = checkpoint.length - pixels.length;
+         if (snapshotSize != 0) {
+            snapshotEnsure(snapshotSize);
+            palette.decode(checkpoint, pixels.length, snapshot, 0, snapshotSize);
+            snapshotFrame = start;
+         }
       } else {
-         int prevIndex = frameIndex - 1;
-         if (prevIndex < 0) {
-            prevIndex = frames.size() - 1;
+         int[] checkpoint = checkpoints[start];
+         int[] pixels = masterImage.getPixels();
+         System.arraycopy(checkpoint, 0, pixels, 0, pixels.length);
+         int snapshotSize = checkpoint.length - pixels.length;
+         if (snapshotSize != 0) {
+            //restoreToPrevious frame. its disposal needs the rectangle as it was before
+            snapshotEnsure(snapshotSize);
+            System.arraycopy(checkpoint, pixels.length, snapshot, 0, snapshotSize);
+            snapshotFrame = start;
          }
-         ImageFrameGIF fg1 = frames.get(prevIndex);
+      }
+      for (int i = start + 1; i <= index; i++) {
+         composeFrame(i);
+      }
+      masterFrameIndex = index;
+   }
 
-         //if we have a full frame.. no need for doing anything
-         //what do we do of the previsou frame?
-         manageDisposal(fg1, masterImage);
+   /**
+    * Applies the disposal of the previous frame and draws the root image of the frame.
+    * <br>
+    * In streaming mode, the frame is decoded again from the source.
+    * <br>
+    * Master must hold the frame at index - 1, or be cleared when index is 0.
+    * @param index
+    */
+   private void composeFrame(int index) {
+      ImageFrameGIF fg = frames.get(index);
+      if (index != 0) {
+         dispose(index - 1);
+      }
+      if (plan.getOp(index) == GifDisposalPlan.OP_2_RESTORE) {
+         snapshotSave(index);
       }
+      if (storeMode == ITechGifEngine.STORE_1_STREAMING) {
+         GifFrameDescriptor fd = fg.getDescriptor();
+         indices = decoder.decodeIndices(fd, indices);
+         GifDecoder.expand(fd, indices, masterImage.getPixels(), masterImage.getWidth(), masterImage.getHeight(), fd.getX(), fd.getY());
+      } else if (storeMode == ITechGifEngine.STORE_3_COMPRESSED) {
+         GifFrameDescriptor fd = fg.getDescriptor();
+         byte[] decoded = indicesCache.get(index);
+         if (decoded == null) {
+            decoded = decoder.decodeIndices(fd, indicesCache.take(fd.getNumPixels()));
+            indicesCache.put(index, decoded);
+         }
+         GifDecoder.expand(fd, decoded, masterImage.getPixels(), masterImage.getWidth(), masterImage.getHeight(), fd.getX(), fd.getY());
+      } else if (storeMode == ITechGifEngine.STORE_2_INDEXED) {
+         GifFrameDescriptor fd = fg.getDescriptor();
+         GifDecoder.expand(fd, fg.getRootIndices(), masterImage.getPixels(), masterImage.getWidth(), masterImage.getHeight(), fd.getX(), fd.getY());
+      } else {
+         masterImage.drawImage(fg.getImageRoot(), fg.getX(), fg.getY());
+      }
+   }
+
+   /**
+    * What is disposal method? It is simply the answer to the question: <b>What do you do with the previous frame?</b>
+    * <br>
+    * <br>
+    * <li> 0 - No disposal specified. The decoder is not required to take any action.
+    * <li> 1 - Do not dispose. The graphic is to be left in place. You draw over it
+    * <li> 2 - Restore to background color. The area used by the graphic must be restored to the background color.
+    * <li> 3 - Restore to previous. The decoder is required to restore the area overwritten by the graphic with what was there prior to rendering the graphic.
+    * The thing to remember about Restore to Previous is that it's not necessarily the first frame of the animation that will be restored but the last frame set to Unspecified or Do Not Dispose.
+    * <br>
+    * <br>
+    * Executes the {@link GifDisposalPlan} compiled when the frame was read.
+    * Restore to previous copies back the rectangle saved by {@link GifEnginePlayOnly#snapshotSave(int)}.
+    * @param index the frame to dispose, before drawing the frame after it
+    */
+   private void dispose(int index) {
+      GifDisposalPlan plan = this.plan;
+      switch (plan.getOp(index)) {
+         case GifDisposalPlan.OP_1_CLEAR:
+            masterImage.fill(plan.getX(index), plan.getY(index), plan.getW(index), plan.getH(index), 0);
+            break;
+         case GifDisposalPlan.OP_2_RESTORE:
+            if (snapshotFrame == index) {
+               masterImage.setRect(plan.getX(index), plan.getY(index), plan.getW(index), plan.getH(index), snapshot);
+            } else {
+               //no snapshot. we do a restoreToBackgroundColor
+               masterImage.fill(plan.getX(index), plan.getY(index), plan.getW(index), plan.getH(index), 0);
+            }
+            break;
+         default:
+            //none and doNotDispose. frame is left in place
+            break;
+      }
+   }
 
-      //if we draw on master. we cannot do restorToPrevious.
-      masterImage.drawImage(fg.getImageRoot(), fg.getX(), fg.getY());
-      fg.setFrameImage(masterImage.getImage());
+   /**
+    * Saves the rectangle of master about to be overwritten by a restoreToPrevious frame.
+    * <br>
+    * Only the clipped frame rectangle is copied, never the whole canvas.
+    * @param index the restoreToPrevious frame
+    */
+   private void snapshotSave(int index) {
+      int w = plan.getW(index);
+      int h = plan.getH(index);
+      snapshotEnsure(w * h);
+      masterImage.getRect(plan.getX(index), plan.getY(index), w, h, snapshot);
+      snapshotFrame = index;
+   }
 
-      //but if we are in do not dispose. we have to draw over! no choice
-      //      if (fg.isLastFullFrame()) {
-      //         fg.setFrameImage(fg.getImageRoot());
-      //      } else {
-      //         //we have to build it fr
-      //         masterImage.drawImage(fg.getImageRoot(), fg.getX(), fg.getY());
-      //         fg.setFrameImage(masterImage.getImage());
-      //      }
+   private void snapshotEnsure(int size) {
+      if (snapshot == null || snapshot.length < size) {
+         snapshot = new int[size];
+      }
+   }
 
-      return fg;
+   /**
+    * Creates a {@link BufferedImage#TYPE_BYTE_INDEXED} image of the root indices of the frame.
+    * <br>
+    * The pixel array is not shared with the frame. The {@link IndexColorModel} is shared with the previous call
+    * when the color table and transparent index are the same.
+    * @param fg frame with root indices
+    * @return
+    */
+   BufferedImage createRootImage(ImageFrameGIF fg) {
+      GifFrameDescriptor fd = fg.getDescriptor();
+      int[] table = fd.getColorTable();
+      int trans = fd.getTransparentIndex();
+      IndexColorModel icm = rootColorModel;
+      if (icm == null || rootColorModelTable != table || rootColorModelTrans != trans) {
+         icm = new IndexColorModel(8, table.length, table, 0, true, trans, DataBuffer.TYPE_BYTE);
+         rootColorModel = icm;
+         rootColorModelTable = table;
+         rootColorModelTrans = trans;
+      }
+      BufferedImage img = new BufferedImage(fd.getW(), fd.getH(), BufferedImage.TYPE_BYTE_INDEXED, icm);
+      byte[] dest = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+      GifDecoder.deinterlace(fd, fg.getRootIndices(), dest);
+      return img;
    }
 
    public void closePlayer() {
-      reader.dispose();
+      decoder = null;
+      sourceBuffer = null;
+      indices = null;
+      snapshot = null;
+      snapshotFrame = -1;
+      cache.clear();
+      indicesCache.clear();
+      spillClose();
+      diskCacheClose();
+      snapshotRelease();
    }
 
    /**
-    * Tries to reach the index.
-    * If index cannot be 
+    * Composites the frame at index, starting from the nearest checkpoint.
+    * <br>
+    * Frame must have been read during the first pass.
     * @param index
     * @return
     */
    public ImageFrameGIF getFrame(int index) {
-      ImageFrameGIF fg = frames.get(index);
-      if (fg.isLastFullFrame()) {
-         //ok we can just set the home as the current
-         masterImage.drawImage(fg.getImageRoot(), 0, 0);
-         fg.setFrameImage(masterImage.getImage());
+      return buildFrameGIFAgain(index);
+   }
+
+   /**
+    * Snapshot of the composited image of frame, safe to read after the engine composites other frames.
+    * <br>
+    * <br>
+    * Must be called while the image of the frame is current, that is before the engine composites another frame.
+    * <br>
+    * A frame has the same image at every replay. Asking again for the frame of the last snapshot shares its copy.
+    * Otherwise the image is copied into a pooled snapshot.
+    * @param frame a frame of this engine
+    * @return a snapshot owned by the caller. It must be released
+    */
+   public synchronized FrameSnapshot getSnapshot(ImageFrameGIF frame) {
+      FrameSnapshot last = snapshotLast;
+      if (last != null && last.getIndex() == frame.getIndex() && last.tryAcquire()) {
+         return last;
+      }
+      BufferedImage src = frame.getImage();
+      int w = src.getWidth();
+      int h = src.getHeight();
+      if (snapshotPool == null || snapshotPool.getWidth() != w || snapshotPool.getHeight() != h) {
+         snapshotPool = new FrameSnapshotPool(imgc, w, h, 4);
+      }
+      FrameSnapshot snap = snapshotPool.obtain(frame);
+      if (src.getType() == BufferedImage.TYPE_INT_ARGB && src.getRaster().getParent() == null) {
+         int[] pixels = ((DataBufferInt) src.getRaster().getDataBuffer()).getData();
+         System.arraycopy(pixels, 0, snap.getPixels(), 0, w * h);
       } else {
-         masterImage.drawImage(fg.getImageRoot(), fg.getX(), fg.getY());
-         fg.setFrameImage(masterImage.getImage());
+         Graphics2D g = snap.getImage().createGraphics();
+         g.setComposite(AlphaComposite.Src);
+         g.drawImage(src, 0, 0, null);
+         g.dispose();
       }
-      return fg;
+      if (last != null) {
+         last.release();
+      }
+      snapshotLast = snap.acquire();
+      return snap;
+   }
+
+   /**
+    * Drops the reference of the engine on the last snapshot. Consumers keep theirs
+    */
+   private synchronized void snapshotRelease() {
+      if (snapshotLast != null) {
+         snapshotLast.release();
+         snapshotLast = null;
+      }
+      snapshotPool = null;
    }
 
    public boolean isFirstPassDone() {
       return isEndReachedAtLeastOnce;
    }
 
+   /**
+    * Returns the frame at the play index and moves to the next one.
+    * <br>
+    * Frames already read are composited again. The next frame of the source is read only when the play index
+    * is past the frames read so far.
+    * @return null when the end is reached. The play index is then back to 0
+    * @throws IOException
+    */
    public ImageFrameGIF getFrameImage() throws IOException {
-      BufferedImage image;
       try {
-         if (isFirstPassDone()) {
+         if (isFirstPassDone() || frameIndex < frames.size()) {
             ImageFrameGIF frame = buildFrameGIFAgain(frameIndex);
             frameIndex++;
             return frame;
          } else {
-            image = reader.read(frameIndex);
-            if (image.getWidth() == this.rootWidth && image.getHeight() == this.rootHeight) {
-               frameIndexOfLastFullFrameSeen = frameIndex;
+            ImageFrameGIF frame = readNextFrame();
+            if (frame == null) {
+               return lastFrameReached();
             }
-            ImageFrameGIF frame = buildFrameGIF(frameIndex, image);
             frameIndex++;
             return frame;
          }
       } catch (IndexOutOfBoundsException io) {
-         //we reached the end. close the reader and use the root Image from now one
+         //we reached the end. use the root Images from now on
          return lastFrameReached();
       } catch (IOException e) {
          //there might an issue with metadata in some GIFs or malformed data
@@ -253,55 +787,203 @@ public class GifEnginePlayOnly implements IStringable {
    }
 
    private ImageFrameGIF lastFrameReached() {
-      isEndReachedAtLeastOnce = true; //this will getNumFrames to work
-      if (reader != null) {
-         reader.dispose();
-         reader = null;
-      }
+      firstPassDone();
       frameIndex = 0;
       //we now know the number of frames
       return null; //use maydecide to run again but that's not our call
    }
 
+   private void firstPassDone() {
+      isEndReachedAtLeastOnce = true; //this will getNumFrames to work
+      if (plan != null) {
+         plan.trim();
+      }
+      if (decoder != null && diskFile == null) {
+         loopCount = decoder.getLoopCount();
+      }
+      if (diskWriter != null) {
+         diskWriter.finish(frames, loopCount);
+         diskWriter = null;
+      }
+   }
+
+   /**
+    * Opens the {@link GifCacheFile} of the source, or starts writing it.
+    * <br>
+    * On a hit, the frames, the disposal plan and the loop count are loaded from the file timeline and the first pass is done.
+    */
+   private void diskCacheOpen() {
+      if (diskCache == null || rootWidth <= 0 || rootHeight <= 0) {
+         return;
+      }
+      String key = diskCache.getKey(sourceBuffer);
+      GifCacheFile file = diskCache.open(key, rootWidth, rootHeight);
+      if (file == null) {
+         diskWriter = diskCache.createWriter(key, rootWidth, rootHeight);
+         return;
+      }
+      diskFile = file;
+      masterImage = new WritableBufferedImage(rootWidth, rootHeight);
+      plan = new GifDisposalPlan(imgc, rootWidth, rootHeight);
+      int num = file.getNumFrames();
+      for (int i = 0; i < num; i++) {
+         GifFrameDescriptor fd = file.getDescriptor(i);
+         if (fd.getW() == rootWidth && fd.getH() == rootHeight) {
+            frameIndexOfLastFullFrameSeen = i;
+         }
+         createFrame(i, fd);
+         plan.add(fd.getDisposal(), fd.getX(), fd.getY(), fd.getW(), fd.getH());
+      }
+      loopCount = file.getLoopCount();
+      firstPassDone();
+   }
+
    /**
-    * Create Frame without drawing them
+    * Drops the mapped file and the file being written
+    */
+   private void diskCacheClose() {
+      diskFile = null;
+      if (diskWriter != null) {
+         diskWriter.abort();
+         diskWriter = null;
+      }
+   }
+
+   /**
+    * Reads, decodes and composites the frame after the last frame read.
+    * <br>
+    * The play index is not modified.
+    * @return null when there are no more frames. First pass is then done
     * @throws IOException
     */
-   public void loadUntilEOF() throws IOException {
+   private ImageFrameGIF readNextFrame() throws IOException {
+      GifFrameDescriptor fd = decoder.nextFrame();
+      if (fd == null) {
+         firstPassDone();
+         return null;
+      }
+      int buildIndex = frames.size();
+      if (buildIndex != 0) {
+         //master might have been moved by a getFrame
+         composeTo(buildIndex - 1);
+      }
+      indices = decoder.decodeIndices(fd, indices);
+      if (fd.getW() == this.rootWidth && fd.getH() == this.rootHeight) {
+         frameIndexOfLastFullFrameSeen = buildIndex;
+      }
+      return buildFrameGIF(buildIndex, fd, indices);
+   }
+
+   /**
+    * Reads frames until the frame at index is known or the end is reached.
+    * <br>
+    * Cost is bounded by the number of frames between the last frame read and index.
+    * Malformed data is considered as the end.
+    * @param index
+    */
+   public void loadUntil(int index) {
       try {
-         while (true) {
-            BufferedImage image = reader.read(frameIndex);
-            if (image.getWidth() == this.rootWidth && image.getHeight() == this.rootHeight) {
-               frameIndexOfLastFullFrameSeen = frameIndex;
+         while (!isEndReachedAtLeastOnce && frames.size() <= index) {
+            if (readNextFrame() == null) {
+               break;
             }
-            buildFrameGIF(frameIndex, image);
-            frameIndex++;
          }
-      } catch (IndexOutOfBoundsException io) {
-         //we reached the end. close the reader and use the root Image from now one
-         reader.dispose();
-         frameIndex = 0;
-         //we now know the number of frames
-         isEndReachedAtLeastOnce = true; //this will getNumFrames to work
+      } catch (IOException e) {
+         e.printStackTrace();
+         firstPassDone();
+      } catch (IllegalArgumentException e) {
+         e.printStackTrace();
+         firstPassDone();
       }
    }
 
-   public boolean isSeekable() {
-      if (isEndReachedAtLeastOnce) {
-         return isOnlyFullFrames();
-      } else {
-         return false;
+   /**
+    * Counts the frames with a block scan of the source. Nothing is decoded.
+    * <br>
+    * Uses its own {@link GifDecoder} on the source, so it may run in a background thread
+    * while this engine is playing. The count is then returned by {@link GifEnginePlayOnly#getNumFrames()}.
+    * <br>
+    * The count is provisional. On malformed or truncated data, the first pass may stop at another frame.
+    * Once the first pass is done, its count replaces this one.
+    * @return the number of frames. -1 if no source
+    */
+   public int scanNumFrames() {
+      ByteBuffer source = sourceBuffer;
+      if (source == null) {
+         return -1;
       }
+      GifDecoder scanner = new GifDecoder(imgc, source);
+      int count = 0;
+      try {
+         scanner.readHeader();
+         while (scanner.nextFrame() != null) {
+            count++;
+         }
+      } catch (IOException e) {
+         //malformed data. the first pass will stop at the same frame
+      }
+      numFramesScanned = count;
+      return count;
    }
 
-   private boolean isOnlyFullFrames() {
-      //true if all frames are full
-      for (ImageFrameGIF frame : frames) {
-         if (!frame.isLastFullFrame()) {
-            return false;
+   /**
+    * Create Frame without drawing them.
+    * <br>
+    * <br>
+    * Two phases
+    * <li>a block scan that records the data offsets of all remaining frames
+    * <li>by batches, a {@link GifIndicesTask} decompresses the frames in parallel, then
+    * disposal and compositing is done in frame order
+    * <br>
+    * Batches bound the memory used by decoded but not yet composited indices.
+    * @throws IOException
+    */
+   public void loadUntilEOF() throws IOException {
+      if (isEndReachedAtLeastOnce) {
+         return;
+      }
+      ArrayList<GifFrameDescriptor> scanned = new ArrayList<GifFrameDescriptor>();
+      try {
+         GifFrameDescriptor fd = null;
+         while ((fd = decoder.nextFrame()) != null) {
+            scanned.add(fd);
+         }
+      } catch (IOException e) {
+         //malformed data. frames scanned so far can run without problem
+         e.printStackTrace();
+      }
+      GifFrameDescriptor[] descriptors = scanned.toArray(new GifFrameDescriptor[scanned.size()]);
+      int buildIndex = frames.size();
+      if (buildIndex != 0 && descriptors.length != 0) {
+         composeTo(buildIndex - 1);
+      }
+      ForkJoinPool pool = ForkJoinPool.commonPool();
+      int batchSize = Math.max(4, pool.getParallelism() * 4);
+      byte[][] batch = new byte[Math.min(batchSize, descriptors.length)][];
+      GifFrameDescriptor[] batchDescriptors = new GifFrameDescriptor[batch.length];
+      for (int start = 0; start < descriptors.length; start += batchSize) {
+         int count = Math.min(batchSize, descriptors.length - start);
+         System.arraycopy(descriptors, start, batchDescriptors, 0, count);
+         pool.invoke(new GifIndicesTask(decoder, batchDescriptors, batch, 0, count));
+         for (int i = 0; i < count; i++) {
+            GifFrameDescriptor fd = batchDescriptors[i];
+            if (fd.getW() == this.rootWidth && fd.getH() == this.rootHeight) {
+               frameIndexOfLastFullFrameSeen = buildIndex;
+            }
+            buildFrameGIF(buildIndex, fd, batch[i]);
+            buildIndex++;
          }
       }
-      return true;
+      //we reached the end. play index is not modified
+      firstPassDone();
+   }
+
+   /**
+    * Once the first pass is done, any frame can be reached from the checkpoints
+    * @return
+    */
+   public boolean isSeekable() {
+      return isEndReachedAtLeastOnce;
    }
 
    /**
@@ -309,111 +991,260 @@ public class GifEnginePlayOnly implements IStringable {
     * @return
     */
    public boolean isReverseSupported() {
-      if (isEndReachedAtLeastOnce) {
-         return isOnlyFullFrames();
-      } else {
-         return false;
-      }
+      return isEndReachedAtLeastOnce;
    }
 
+   /**
+    * Number of frames. Final when the first pass is done. Before that, the provisional count of a {@link GifEnginePlayOnly#scanNumFrames()}
+    * <br>
+    * Any thread
+    * @return -1 if not known yet
+    */
    public int getNumFrames() {
       if (isEndReachedAtLeastOnce) {
-         return frames.size();
+         return numFramesLoaded;
       }
-      return -1;
+      return numFramesScanned;
    }
 
    /**
-    * What is disposal method? It is simply the answer to the question: <b>What do you do with the previous frame?</b>
+    * Number of frames read so far. Those frames can be reached with {@link GifEnginePlayOnly#getFrame(int)}
+    * <br>
+    * Any thread
+    * @return
+    */
+   public int getNumFramesLoaded() {
+      return numFramesLoaded;
+   }
+
+   /**
+    * Reads the meta data to know the width and height of the "screen"
+    */
+   public void readMetaData() {
+      initMetaData();
+   }
+
+   /**
+    * Sets the play index of {@link GifEnginePlayOnly#getFrameImage()}.
     * <br>
     * <br>
-    * <li> 0 - No disposal specified. The decoder is not required to take any action.
-    * <li> 1 - Do not dispose. The graphic is to be left in place. You draw over it
-    * <li> 2 - Restore to background color. The area used by the graphic must be restored to the background color.
-    * <li> 3 - Restore to previous. The decoder is required to restore the area overwritten by the graphic with what was there prior to rendering the graphic.
-    * The thing to remember about Restore to Previous is that it's not necessarily the first frame of the animation that will be restored but the last frame set to Unspecified or Do Not Dispose.
-    * @param disposal
-    */
-   private void manageDisposal(ImageFrameGIF fg, WritableBufferedImage master) {
-      String disposal = fg.getDisposal();
-      if (disposal.equals("restoreToPrevious")) {
-         BufferedImage from = null;
-         //read the last non restoreToPrevious frame
-         for (int i = frameIndex - 1; i >= 0; i--) {
-            if (!frames.get(i).getDisposal().equals("restoreToPrevious") || frameIndex == 0) {
-               //what do we have here?
-               from = frames.get(i).getImageRoot();
-               break;
-            }
-         }
-         if (from != null) {
-            master.resetTo(from);
-         } else {
-            //we do a restoreToBackgroundColor
-            master.clearRect(fg.getX(), fg.getY(), fg.getW(), fg.getH());
-         }
-      } else if (disposal.equals("restoreToBackgroundColor")) {
-         master.clearRect(fg.getX(), fg.getY(), fg.getW(), fg.getH());
-      } else if (disposal.equals("doNotDispose")) {
-         //when disposable is none
-         //all images are down over each other.
-         //so potentially you need all images to visually (for the user) draw the last one
-      } else {
-         //none case
+    * Any frame already read can be reached. The frame is composited from the closest checkpoint when played.
+    * @param frameSeek
+    */
+   public void seekToFrame(int frameSeek) {
+      int max = frames.size();
+      if (isEndReachedAtLeastOnce) {
+         max--;
+      }
+      //before the end, seeking just after the last frame read continues the first pass
+      if (frameSeek < 0 || frameSeek > max) {
+         throw new IllegalArgumentException("" + frameSeek);
       }
+      frameIndex = frameSeek;
    }
 
    /**
-    * Reads the meta data to know the width and height of the "screen"
-    * @throws IOException
+    * Selects what is kept in memory per frame.
+    * <br>
+    * Must be set before the source.
+    * @param storeMode {@link ITechGifEngine#STORE_0_ROOT_IMAGES}, {@link ITechGifEngine#STORE_1_STREAMING},
+    * {@link ITechGifEngine#STORE_2_INDEXED} or {@link ITechGifEngine#STORE_3_COMPRESSED}
     */
-   public void readMetaData() throws IOException {
-      IIOMetadata metadata = reader.getStreamMetadata();
-      if (metadata != null) {
-         IIOMetadataNode globalRoot = (IIOMetadataNode) metadata.getAsTree(metadata.getNativeMetadataFormatName());
+   public void setStoreMode(int storeMode) {
+      this.storeMode = storeMode;
+   }
 
-         NodeList globalScreenDescriptor = globalRoot.getElementsByTagName("LogicalScreenDescriptor");
+   public int getStoreMode() {
+      return storeMode;
+   }
 
-         if (globalScreenDescriptor != null && globalScreenDescriptor.getLength() > 0) {
-            IIOMetadataNode screenDescriptor = (IIOMetadataNode) globalScreenDescriptor.item(0);
+   /**
+    * Maximum number of bytes of the composited frames cache.
+    * <br>
+    * Not used in {@link ITechGifEngine#STORE_1_STREAMING}
+    * <br>
+    * Frames over the new budget are evicted.
+    * @param bytes 0 to disable the cache and always composite
+    */
+   public void setCacheBudget(long bytes) {
+      cache.setBudget(bytes);
+   }
 
-            if (screenDescriptor != null) {
-               rootWidth = Integer.parseInt(screenDescriptor.getAttribute("logicalScreenWidth"));
-               rootHeight = Integer.parseInt(screenDescriptor.getAttribute("logicalScreenHeight"));
-            }
-         }
-      }
+   /**
+    * Maximum size of the temporary file receiving the composited frames that do not fit in the cache budget.
+    * <br>
+    * Spilled frames are read back with a copy from the memory mapped file, so seeking and reverse play
+    * do not composite them again, while the heap only holds the cache budget.
+    * <br>
+    * Must be set before the source. Not used in {@link ITechGifEngine#STORE_1_STREAMING}
+    * @param bytes 0 to disable
+    */
+   public void setSpillBudget(long bytes) {
+      this.spillBudget = bytes;
    }
 
    /**
-    * Builds the image back to the given frame.
+    * Persistent cache of the composited frames, keyed by the content of the source.
     * <br>
+    * Must be set before the source.
+    * @param diskCache null to disable
+    */
+   public void setDiskCache(GifDiskCache diskCache) {
+      this.diskCache = diskCache;
+   }
+
+   /**
+    * True when the frames are played from a {@link GifCacheFile}
+    * @return
+    */
+   public boolean isFromDiskCache() {
+      return diskFile != null;
+   }
+
+   /**
+    * Maximum number of bytes of decoded palette indices kept in {@link ITechGifEngine#STORE_3_COMPRESSED}
+    * @param bytes 0 to decode every frame each time it is composited
+    */
+   public void setIndicesCacheBudget(long bytes) {
+      indicesCache.setBudget(bytes);
+   }
+
+   /**
+    * 
+    * @param policy {@link ITechGifEngine#CACHE_POLICY_0_LRU} or {@link ITechGifEngine#CACHE_POLICY_1_PIN}
+    */
+   public void setCachePolicy(int policy) {
+      cache.setPolicy(policy);
+   }
+
+   /**
+    * Maximum number of bytes of the checkpoints. When exceeded, the interval is doubled.
+    * @param bytes 0 for no limit
+    */
+   public void setCheckpointBudget(long bytes) {
+      this.checkpointBudget = bytes;
+   }
+
+   /**
+    * Number of frames between 2 checkpoints. Bounds the number of frames replayed by a seek.
     * <br>
-    * Most of the time, this requires to build the since the last full frame
-    * @param frameSeek
+    * Must be set before the first pass
+    * @param interval 1 or more
     */
-   public void seekToFrame(int frameSeek) {
-      if (isSeekable()) {
-         frameIndex = frameSeek;
-      } else {
-         throw new IllegalStateException();
+   public void setCheckpointInterval(int interval) {
+      if (interval < 1) {
+         throw new IllegalArgumentException("" + interval);
       }
+      this.checkpointInterval = interval;
    }
 
    public void setSource(ByteArrayInputStream is) throws IOException {
-      //make the stream seakable
-      Iterator<ImageReader> readers = ImageIO.getImageReadersBySuffix("gif");
-      ImageInputStream imageInputStream = ImageIO.createImageInputStream(is);
-      reader = readers.next();
-      reader.setInput(imageInputStream, false);
+      setSourceToArray(is);
+   }
+
+   /**
+    * The decoder needs random access to the bytes.
+    * @param data
+    * @param len
+    * @throws IOException
+    */
+   private void setSourceBytes(byte[] data, int len) throws IOException {
+      setSourceBuffer(ByteBuffer.wrap(data, 0, len));
+   }
+
+   /**
+    * Reads the header from the buffer. Frames are decoded from it with absolute gets, without copies.
+    * @param source
+    * @throws IOException
+    */
+   private void setSourceBuffer(ByteBuffer source) throws IOException {
+      sourceBuffer = source;
+      decoder = new GifDecoder(imgc, source);
+      decoder.readHeader();
       initMetaData();
+      diskCacheOpen();
+   }
+
+   /**
+    * Maps the whole channel read only. No copy of the file on the heap and no temporary file.
+    * <br>
+    * The mapping stays valid after the channel is closed.
+    * @param fc
+    * @throws IOException when the file is not a GIF or is larger than 2GB
+    */
+   public void setSource(FileChannel fc) throws IOException {
+      setSourceChannel(fc, 0);
+   }
+
+   private void setSourceChannel(FileChannel fc, long position) throws IOException {
+      reset();
+      long size = fc.size() - position;
+      if (size > Integer.MAX_VALUE) {
+         throw new IOException("GIF file too large to be mapped " + size);
+      }
+      MappedByteBuffer mapped = fc.map(FileChannel.MapMode.READ_ONLY, position, size);
+      setSourceBuffer(mapped);
+   }
+
+   /**
+    * Memory maps the GIF file.
+    * @param path
+    * @throws IOException
+    * @see GifEnginePlayOnly#setSource(FileChannel)
+    */
+   public void setSource(Path path) throws IOException {
+      FileChannel fc = FileChannel.open(path, StandardOpenOption.READ);
+      try {
+         setSource(fc);
+      } finally {
+         fc.close();
+      }
+   }
+
+   /**
+    * Memory maps and reads the header of the GIF file in the {@link ImgCtx#getAnimExecutor()}.
+    * <br>
+    * The engine must not be used until the callback is called.
+    * @param path
+    * @param cb called with this engine when ready, or with the {@link IOException}
+    */
+   public void setSourceAsync(final Path path, final ICallBack cb) {
+      imgc.getAnimExecutor().execute(new Runnable() {
+         public void run() {
+            try {
+               setSource(path);
+               cb.callBack(GifEnginePlayOnly.this);
+            } catch (IOException e) {
+               cb.callBack(e);
+            }
+         }
+      });
    }
 
    private void reset() {
       masterImage = null;
       frameIndex = 0;
       frames.clear();
-      reader = null;
+      numFramesLoaded = 0;
+      checkpoints = new int[2][];
+      checkpointsIndexed = new byte[2][];
+      checkpointBytes = 0;
+      palette = null;
+      rootColorModel = null;
+      rootColorModelTable = null;
+      masterFrameIndex = -1;
+      cache.clear();
+      indicesCache.clear();
+      spillClose();
+      diskCacheClose();
+      snapshotRelease();
+      snapshot = null;
+      snapshotFrame = -1;
+      plan = null;
+      decoder = null;
+      sourceBuffer = null;
+      numFramesScanned = -1;
+      loopCount = -1;
       frameIndexOfLastFullFrameSeen = 0;
       rootHeight = -1;
       rootWidth = -1;
@@ -423,18 +1254,21 @@ public class GifEnginePlayOnly implements IStringable {
    public void setSourceToArray(InputStream is) throws IOException {
       reset();
       BAByteOS bos = imgc.getUC().getIOU().convert(is);
-      ByteArrayInputStream bis = new ByteArrayInputStream(bos.getArrayRef(), 0, bos.size());
-      setSource(bis);
+      setSourceBytes(bos.getArrayRef(), bos.size());
    }
 
+   /**
+    * A {@link FileInputStream} is memory mapped from its current position. Other streams are read in memory.
+    * @param is
+    * @throws IOException
+    */
    public void setSource(InputStream is) throws IOException {
-      reset();
-      //make the stream seakable
-      Iterator<ImageReader> readers = ImageIO.getImageReadersBySuffix("gif");
-      ImageInputStream imageInputStream = ImageIO.createImageInputStream(is);
-      reader = readers.next();
-      reader.setInput(imageInputStream, false);
-      initMetaData();
+      if (is instanceof FileInputStream) {
+         FileChannel fc = ((FileInputStream) is).getChannel();
+         setSourceChannel(fc, fc.position());
+      } else {
+         setSourceToArray(is);
+      }
    }
 
    //#mdebug
@@ -450,6 +1284,10 @@ public class GifEnginePlayOnly implements IStringable {
       dc.root(this, "GifEnginePlayOnly");
       toStringPrivate(dc);
 
+      dc.nlLvl(cache, "Cache");
+      dc.nlLvl(indicesCache, "IndicesCache");
+      dc.nlLvl(spill, "Spill");
+      dc.nlLvl(plan, "DisposalPlan");
       imgc.getC5().toStringListStringable(dc, frames, "GIF Frames");
 
       if (masterImage == null) {
@@ -470,7 +1308,13 @@ public class GifEnginePlayOnly implements IStringable {
       dc.appendVarWithSpace("frameIndex", frameIndex);
       dc.appendVarWithSpace("rootWidth", rootWidth);
       dc.appendVarWithSpace("rootHeight", rootHeight);
+      dc.appendVarWithSpace("loopCount", loopCount);
+      dc.appendVarWithSpace("storeMode", storeMode);
+      dc.appendVarWithSpace("masterFrameIndex", masterFrameIndex);
+      dc.appendVarWithSpace("checkpointInterval", checkpointInterval);
+      dc.appendVarWithSpace("checkpointBytes", checkpointBytes);
       dc.appendVarWithSpace("isEndReachedAtLeastOnce", isEndReachedAtLeastOnce);
+      dc.appendVarWithSpace("numFramesScanned", numFramesScanned);
    }
 
    public void toString1Line(Dctx dc) {
@@ -483,6 +1327,14 @@ public class GifEnginePlayOnly implements IStringable {
    }
    //#enddebug
 
+   public GifFrameCache getCache() {
+      return cache;
+   }
+
+   public GifIndicesCache getIndicesCache() {
+      return indicesCache;
+   }
+
    public int getRootWidth() {
       return rootWidth;
    }
@@ -491,4 +1343,14 @@ public class GifEnginePlayOnly implements IStringable {
       return rootHeight;
    }
 
+   /**
+    * Number of repetitions requested by the NETSCAPE2.0 application extension.
+    * <br>
+    * Only known once the first pass is done.
+    * @return 0 for infinite, -1 if the GIF does not define it
+    */
+   public int getLoopCount() {
+      return loopCount;
+   }
+
 }
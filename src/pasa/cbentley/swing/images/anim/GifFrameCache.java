@@ -0,0 +1,238 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+import pasa.cbentley.swing.images.interfaces.ITechGifEngine;
+
+/**
+ * Byte budgeted cache of composited GIF frames, keyed by frame index.
+ * <br>
+ * <br>
+ * Each entry is a TYPE_INT_ARGB {@link BufferedImage} of its own, so a frame served from the cache needs no compositing.
+ * <br>
+ * Eviction follows {@link ITechGifEngine#CACHE_POLICY_0_LRU} or {@link ITechGifEngine#CACHE_POLICY_1_PIN}.
+ * The image of an evicted entry is recycled for the next {@link GifFrameCache#put(int, int[], int, int)} of the same size.
+ * When a {@link GifFrameSpill} is set, evicted frames are written to it before being recycled.
+ * <br>
+ * <br>
+ * An image returned by the cache is valid until the next put. Consumers copy it, like they copy the master image.
+ * <br>
+ * Not thread safe. Accessed by the thread of the {@link GifEnginePlayOnly}.
+ * @author Charles Bentley
+ *
+ */
+public class GifFrameCache implements IStringable {
+
+   /**
+    * Maximum number of bytes of pixels. 0 disables the cache
+    */
+   private long                                 budget;
+
+   private long                                 bytes;
+
+   private int                                  hits;
+
+   protected final ImgCtx                       imgc;
+
+   /**
+    * Access ordered, eldest is least recently used
+    */
+   private final LinkedHashMap<Integer, BufferedImage> map = new LinkedHashMap<Integer, BufferedImage>(16, 0.75f, true);
+
+   private int                                  misses;
+
+   private int                                  policy;
+
+   /**
+    * Image of the last evicted entry
+    */
+   private BufferedImage                        recycled;
+
+   /**
+    * Receives evicted frames. May be null
+    */
+   private GifFrameSpill                        spill;
+
+   /**
+    * 
+    * @param imgc
+    * @param budget in bytes
+    * @param policy {@link ITechGifEngine#CACHE_POLICY_0_LRU} or {@link ITechGifEngine#CACHE_POLICY_1_PIN}
+    */
+   public GifFrameCache(ImgCtx imgc, long budget, int policy) {
+      this.imgc = imgc;
+      this.budget = budget;
+      this.policy = policy;
+   }
+
+   /**
+    * Drops all entries
+    */
+   public void clear() {
+      map.clear();
+      bytes = 0;
+      recycled = null;
+   }
+
+   /**
+    * Returns the cached composited image of frame index
+    * @param index
+    * @return null if not in the cache
+    */
+   public BufferedImage get(int index) {
+      BufferedImage img = map.get(Integer.valueOf(index));
+      if (img == null) {
+         misses++;
+      } else {
+         hits++;
+      }
+      return img;
+   }
+
+   public long getBudget() {
+      return budget;
+   }
+
+   public long getBytes() {
+      return bytes;
+   }
+
+   public int getHits() {
+      return hits;
+   }
+
+   public int getMisses() {
+      return misses;
+   }
+
+   public int getNumEntries() {
+      return map.size();
+   }
+
+   public int getPolicy() {
+      return policy;
+   }
+
+   /**
+    * Copies the pixels in the cache for frame index.
+    * @param index
+    * @param pixels ARGB pixels with a scanline of w
+    * @param w
+    * @param h
+    * @return the cached image. null when the cache does not accept it
+    */
+   public BufferedImage put(int index, int[] pixels, int w, int h) {
+      long size = w * h * 4L;
+      if (size > budget) {
+         return null;
+      }
+      Integer key = Integer.valueOf(index);
+      BufferedImage img = map.get(key);
+      if (img == null) {
+         if (bytes + size > budget) {
+            if (policy == ITechGifEngine.CACHE_POLICY_1_PIN) {
+               return null;
+            }
+            evict(size);
+         }
+         img = recycled;
+         recycled = null;
+         if (img == null || img.getWidth() != w || img.getHeight() != h) {
+            img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+         }
+         map.put(key, img);
+         bytes += size;
+      }
+      int[] dest = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+      System.arraycopy(pixels, 0, dest, 0, w * h);
+      return img;
+   }
+
+   /**
+    * Evicts least recently used entries until size bytes fit in the budget
+    * @param size
+    */
+   private void evict(long size) {
+      Iterator<Map.Entry<Integer, BufferedImage>> it = map.entrySet().iterator();
+      while (bytes + size > budget && it.hasNext()) {
+         Map.Entry<Integer, BufferedImage> e = it.next();
+         BufferedImage img = e.getValue();
+         if (spill != null) {
+            spill.put(e.getKey().intValue(), ((DataBufferInt) img.getRaster().getDataBuffer()).getData());
+         }
+         it.remove();
+         bytes -= img.getWidth() * img.getHeight() * 4L;
+         recycled = img;
+      }
+   }
+
+   /**
+    * Entries over the new budget are evicted, whatever the policy
+    * @param budget in bytes. 0 disables the cache
+    */
+   public void setBudget(long budget) {
+      this.budget = budget;
+      evict(0);
+      if (map.isEmpty()) {
+         recycled = null;
+      }
+   }
+
+   public void setPolicy(int policy) {
+      this.policy = policy;
+   }
+
+   /**
+    * 
+    * @param spill where evicted frames go. null to discard them
+    */
+   public void setSpill(GifFrameSpill spill) {
+      this.spill = spill;
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "GifFrameCache");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "GifFrameCache");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("policy", policy);
+      dc.appendVarWithSpace("budget", budget);
+      dc.appendVarWithSpace("bytes", bytes);
+      dc.appendVarWithSpace("entries", map.size());
+      dc.appendVarWithSpace("hits", hits);
+      dc.appendVarWithSpace("misses", misses);
+   }
+   //#enddebug
+
+}
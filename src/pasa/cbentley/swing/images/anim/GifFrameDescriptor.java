@@ -0,0 +1,207 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Raw description of a GIF image block as read by {@link GifDecoder}.
+ * <br>
+ * Values come from the Graphic Control Extension preceding the image (if any) and the Image Descriptor.
+ * <br>
+ * The compressed LZW data is not read. Only its position in the source is remembered in
+ * {@link GifFrameDescriptor#getDataOffset()}.
+ * @author Charles Bentley
+ *
+ */
+public class GifFrameDescriptor implements IStringable {
+
+   /**
+    * Same names as the disposalMethod attribute of the javax_imageio_gif_image_1.0 metadata format
+    */
+   private static final String[] DISPOSAL_NAMES = { "none", "doNotDispose", "restoreToBackgroundColor", "restoreToPrevious", "undefinedDisposalMethod4", "undefinedDisposalMethod5", "undefinedDisposalMethod6", "undefinedDisposalMethod7" };
+
+   /**
+    * Name of the disposal code
+    * @param disposal 0 to 7
+    * @return shared String instance
+    */
+   public static String getDisposalName(int disposal) {
+      return DISPOSAL_NAMES[disposal & 0x07];
+   }
+
+   /**
+    * ARGB colors, always 256 entries
+    */
+   private int[]        colorTable;
+
+   /**
+    * Position of the LZW minimum code size byte in the source
+    */
+   private int          dataOffset;
+
+   /**
+    * Position just after the block terminator of the LZW sub blocks
+    */
+   private int          dataEnd;
+
+   /**
+    * In 1/100th of a second
+    */
+   private int          delay;
+
+   /**
+    * Raw disposal code 0 to 7 of the GCE
+    */
+   private int          disposal;
+
+   private int          h;
+
+   protected final ImgCtx imgc;
+
+   private boolean      isInterlaced;
+
+   private boolean      isLocalColorTable;
+
+   /**
+    * -1 when no transparency
+    */
+   private int          transparentIndex = -1;
+
+   private int          w;
+
+   private int          x;
+
+   private int          y;
+
+   public GifFrameDescriptor(ImgCtx imgc) {
+      this.imgc = imgc;
+   }
+
+   public int[] getColorTable() {
+      return colorTable;
+   }
+
+   public int getDataEnd() {
+      return dataEnd;
+   }
+
+   public int getDataOffset() {
+      return dataOffset;
+   }
+
+   public int getDelay() {
+      return delay;
+   }
+
+   public int getDisposal() {
+      return disposal;
+   }
+
+   public int getH() {
+      return h;
+   }
+
+   /**
+    * Number of indices of the frame
+    * @return
+    */
+   public int getNumPixels() {
+      return w * h;
+   }
+
+   public int getTransparentIndex() {
+      return transparentIndex;
+   }
+
+   public int getW() {
+      return w;
+   }
+
+   public int getX() {
+      return x;
+   }
+
+   public int getY() {
+      return y;
+   }
+
+   public boolean isInterlaced() {
+      return isInterlaced;
+   }
+
+   public boolean isLocalColorTable() {
+      return isLocalColorTable;
+   }
+
+   public void setColorTable(int[] colorTable, boolean isLocal) {
+      this.colorTable = colorTable;
+      this.isLocalColorTable = isLocal;
+   }
+
+   public void setData(int dataOffset, int dataEnd) {
+      this.dataOffset = dataOffset;
+      this.dataEnd = dataEnd;
+   }
+
+   public void setGraphicControl(int delay, int disposal, int transparentIndex) {
+      this.delay = delay;
+      this.disposal = disposal;
+      this.transparentIndex = transparentIndex;
+   }
+
+   public void setInterlaced(boolean isInterlaced) {
+      this.isInterlaced = isInterlaced;
+   }
+
+   public void setRect(int x, int y, int w, int h) {
+      this.x = x;
+      this.y = y;
+      this.w = w;
+      this.h = h;
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "GifFrameDescriptor");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "GifFrameDescriptor");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("x", x);
+      dc.appendVarWithSpace("y", y);
+      dc.appendVarWithSpace("w", w);
+      dc.appendVarWithSpace("h", h);
+      dc.appendVarWithSpace("delay", delay);
+      dc.appendVarWithSpace("disposal", disposal);
+      dc.appendVarWithSpace("transparentIndex", transparentIndex);
+      dc.appendVarWithSpace("isInterlaced", isInterlaced);
+      dc.appendVarWithSpace("isLocalColorTable", isLocalColorTable);
+      dc.appendVarWithSpace("dataOffset", dataOffset);
+      dc.appendVarWithSpace("dataEnd", dataEnd);
+   }
+   //#enddebug
+
+}
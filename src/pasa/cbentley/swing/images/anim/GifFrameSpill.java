@@ -0,0 +1,227 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Composited GIF frames spilled off heap in a temporary memory mapped file of raw ARGB rows.
+ * <br>
+ * <br>
+ * Used by {@link GifFrameCache} for the frames it evicts or refuses. Reading a frame back is a copy from the
+ * mapped region, without decoding or compositing. The pages are managed by the OS, not the garbage collector.
+ * <br>
+ * All frames have the size of the logical screen. Each spilled frame gets the next slot of the file, until the budget is reached.
+ * The file is mapped in segments holding a whole number of slots.
+ * <br>
+ * The file is deleted by {@link GifFrameSpill#close()}.
+ * <br>
+ * Not thread safe. Accessed by the thread of the {@link GifEnginePlayOnly}.
+ * @author Charles Bentley
+ *
+ */
+public class GifFrameSpill implements IStringable {
+
+   /**
+    * Maximum size of a mapped segment
+    */
+   private static final int  SEGMENT_MAX = 64 * 1024 * 1024;
+
+   private final long        budget;
+
+   private FileChannel       channel;
+
+   private Path              file;
+
+   private final int         frameInts;
+
+   protected final ImgCtx    imgc;
+
+   /**
+    * Set when the file could not be created or grown. Nothing is spilled anymore
+    */
+   private boolean           isFailed;
+
+   private int               numSlots;
+
+   private IntBuffer[]       segments    = new IntBuffer[2];
+
+   /**
+    * Slot + 1 of each frame index. 0 when not spilled
+    */
+   private int[]             slotOfFrame = new int[16];
+
+   private final int         slotsPerSegment;
+
+   /**
+    *
+    * @param imgc
+    * @param w width of the frames
+    * @param h height of the frames
+    * @param budget maximum size of the file in bytes
+    */
+   public GifFrameSpill(ImgCtx imgc, int w, int h, long budget) {
+      this.imgc = imgc;
+      this.frameInts = w * h;
+      this.budget = budget;
+      long frameBytes = Math.max(1, frameInts * 4L);
+      this.slotsPerSegment = (int) Math.max(1, Math.min(SEGMENT_MAX, budget) / frameBytes);
+   }
+
+   /**
+    * Unmaps and deletes the file
+    */
+   public void close() {
+      segments = new IntBuffer[2];
+      slotOfFrame = new int[16];
+      numSlots = 0;
+      if (channel != null) {
+         try {
+            channel.close();
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+         channel = null;
+      }
+      if (file != null) {
+         try {
+            Files.deleteIfExists(file);
+         } catch (IOException e) {
+            //might still be mapped on some platforms. deleteOnExit will do it
+         }
+         file = null;
+      }
+   }
+
+   /**
+    * Copies the spilled frame into dest
+    * @param index frame index
+    * @param dest array of at least w * h ARGB pixels
+    * @return false if the frame is not spilled
+    */
+   public boolean get(int index, int[] dest) {
+      if (!isSpilled(index)) {
+         return false;
+      }
+      int slot = slotOfFrame[index] - 1;
+      IntBuffer buf = segments[slot / slotsPerSegment].duplicate();
+      buf.position((slot % slotsPerSegment) * frameInts);
+      buf.get(dest, 0, frameInts);
+      return true;
+   }
+
+   public long getBytes() {
+      return numSlots * (long) frameInts * 4L;
+   }
+
+   public int getNumFrames() {
+      return numSlots;
+   }
+
+   public boolean isSpilled(int index) {
+      return index < slotOfFrame.length && slotOfFrame[index] != 0;
+   }
+
+   /**
+    * Writes the frame in the next slot. A frame already spilled is not written again, since a composited frame never changes.
+    * @param index frame index
+    * @param pixels w * h ARGB pixels
+    * @return false when over budget or when the file could not be written
+    */
+   public boolean put(int index, int[] pixels) {
+      if (isSpilled(index)) {
+         return true;
+      }
+      if (isFailed || getBytes() + frameInts * 4L > budget) {
+         return false;
+      }
+      int slot = numSlots;
+      int segment = slot / slotsPerSegment;
+      try {
+         if (segment >= segments.length || segments[segment] == null) {
+            mapSegment(segment);
+         }
+      } catch (IOException e) {
+         e.printStackTrace();
+         isFailed = true;
+         return false;
+      }
+      IntBuffer buf = segments[segment].duplicate();
+      buf.position((slot % slotsPerSegment) * frameInts);
+      buf.put(pixels, 0, frameInts);
+      if (index >= slotOfFrame.length) {
+         int[] newSlots = new int[Math.max(index + 1, slotOfFrame.length * 2)];
+         System.arraycopy(slotOfFrame, 0, newSlots, 0, slotOfFrame.length);
+         slotOfFrame = newSlots;
+      }
+      slotOfFrame[index] = slot + 1;
+      numSlots++;
+      return true;
+   }
+
+   private void mapSegment(int segment) throws IOException {
+      if (channel == null) {
+         file = Files.createTempFile("gifspill", ".argb");
+         file.toFile().deleteOnExit();
+         channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      }
+      long size = slotsPerSegment * (long) frameInts * 4L;
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, segment * size, size);
+      mapped.order(ByteOrder.nativeOrder());
+      if (segment >= segments.length) {
+         IntBuffer[] newSegments = new IntBuffer[Math.max(segment + 1, segments.length * 2)];
+         System.arraycopy(segments, 0, newSegments, 0, segments.length);
+         segments = newSegments;
+      }
+      segments[segment] = mapped.asIntBuffer();
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "GifFrameSpill");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "GifFrameSpill");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("budget", budget);
+      dc.appendVarWithSpace("bytes", getBytes());
+      dc.appendVarWithSpace("frames", numSlots);
+      dc.appendVarWithSpace("isFailed", isFailed);
+      if (file != null) {
+         dc.appendVarWithSpace("file", file.toString());
+      }
+   }
+   //#enddebug
+
+}
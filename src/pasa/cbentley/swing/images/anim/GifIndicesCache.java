@@ -0,0 +1,201 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+import pasa.cbentley.swing.images.interfaces.ITechGifEngine;
+
+/**
+ * Small least recently used cache of decoded palette indices, keyed by frame index.
+ * <br>
+ * <br>
+ * Sits in front of the LZW decompression in {@link ITechGifEngine#STORE_3_COMPRESSED}, where a frame is decoded
+ * from its compressed data each time it is composited.
+ * <br>
+ * Evicted arrays are pooled and handed back by {@link GifIndicesCache#take(int)} as scratch buffers for the next decode,
+ * so a steady playback does not allocate.
+ * <br>
+ * Not thread safe. Accessed by the thread of the {@link GifEnginePlayOnly}.
+ * @author Charles Bentley
+ *
+ */
+public class GifIndicesCache implements IStringable {
+
+   /**
+    * Maximum number of bytes of indices. 0 disables the cache
+    */
+   private long                                  budget;
+
+   private long                                  bytes;
+
+   private int                                   hits;
+
+   protected final ImgCtx                        imgc;
+
+   /**
+    * Access ordered, eldest is least recently used
+    */
+   private final LinkedHashMap<Integer, byte[]>  map = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true);
+
+   private int                                   misses;
+
+   /**
+    * Array of the last evicted or refused entry
+    */
+   private byte[]                                recycled;
+
+   /**
+    *
+    * @param imgc
+    * @param budget in bytes
+    */
+   public GifIndicesCache(ImgCtx imgc, long budget) {
+      this.imgc = imgc;
+      this.budget = budget;
+   }
+
+   /**
+    * Drops all entries and the pooled array
+    */
+   public void clear() {
+      map.clear();
+      bytes = 0;
+      recycled = null;
+   }
+
+   /**
+    * Evicts least recently used entries until size bytes fit in the budget
+    * @param size
+    */
+   private void evict(long size) {
+      Iterator<Map.Entry<Integer, byte[]>> it = map.entrySet().iterator();
+      while (bytes + size > budget && it.hasNext()) {
+         byte[] indices = it.next().getValue();
+         it.remove();
+         bytes -= indices.length;
+         recycle(indices);
+      }
+   }
+
+   /**
+    *
+    * @param index
+    * @return null if not in the cache
+    */
+   public byte[] get(int index) {
+      byte[] indices = map.get(Integer.valueOf(index));
+      if (indices == null) {
+         misses++;
+      } else {
+         hits++;
+      }
+      return indices;
+   }
+
+   public long getBudget() {
+      return budget;
+   }
+
+   public long getBytes() {
+      return bytes;
+   }
+
+   public int getHits() {
+      return hits;
+   }
+
+   public int getMisses() {
+      return misses;
+   }
+
+   /**
+    * Gives the indices of frame index to the cache.
+    * <br>
+    * When not accepted, the array is pooled. In both cases the caller must not keep a reference, beside
+    * reading it until the next call to this cache.
+    * @param index
+    * @param indices array obtained from {@link GifIndicesCache#take(int)}
+    */
+   public void put(int index, byte[] indices) {
+      long size = indices.length;
+      Integer key = Integer.valueOf(index);
+      if (size > budget || map.containsKey(key)) {
+         recycle(indices);
+         return;
+      }
+      evict(size);
+      map.put(key, indices);
+      bytes += size;
+   }
+
+   private void recycle(byte[] indices) {
+      if (recycled == null || recycled.length < indices.length) {
+         recycled = indices;
+      }
+   }
+
+   /**
+    * Entries over the new budget are evicted
+    * @param budget in bytes. 0 disables the cache
+    */
+   public void setBudget(long budget) {
+      this.budget = budget;
+      evict(0);
+   }
+
+   /**
+    * Scratch array for decoding a frame. The pooled array when large enough
+    * @param size minimum length
+    * @return
+    */
+   public byte[] take(int size) {
+      byte[] indices = recycled;
+      if (indices != null && indices.length >= size) {
+         recycled = null;
+         return indices;
+      }
+      return new byte[size];
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "GifIndicesCache");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "GifIndicesCache");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("budget", budget);
+      dc.appendVarWithSpace("bytes", bytes);
+      dc.appendVarWithSpace("entries", map.size());
+      dc.appendVarWithSpace("hits", hits);
+      dc.appendVarWithSpace("misses", misses);
+   }
+   //#enddebug
+
+}
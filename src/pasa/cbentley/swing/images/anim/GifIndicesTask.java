@@ -0,0 +1,70 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/Join decompression of the palette indices of a range of frames.
+ * <br>
+ * <br>
+ * GIF frames are LZW compressed independently of each other, so once their data offsets are known by a block
+ * scan with {@link GifDecoder#nextFrame()}, they can be decompressed in any order.
+ * The compositing of the decoded indices must still be done sequentially.
+ * <br>
+ * Each leaf uses its own {@link GifLZWDecoder} on the shared source of the {@link GifDecoder}.
+ * @author Charles Bentley
+ *
+ */
+public class GifIndicesTask extends RecursiveAction {
+
+   /**
+    *
+    */
+   private static final long          serialVersionUID = -3405626874215019017L;
+
+   /**
+    * Leaf size in number of frames
+    */
+   private static final int           THRESHOLD        = 2;
+
+   private final GifDecoder           decoder;
+
+   private final GifFrameDescriptor[] descriptors;
+
+   private final byte[][]             indices;
+
+   private final int                  from;
+
+   private final int                  to;
+
+   /**
+    *
+    * @param decoder source of the data
+    * @param descriptors frames to decode
+    * @param indices receives the decoded indices at the same array position as the descriptor
+    * @param from inclusive
+    * @param to exclusive
+    */
+   public GifIndicesTask(GifDecoder decoder, GifFrameDescriptor[] descriptors, byte[][] indices, int from, int to) {
+      this.decoder = decoder;
+      this.descriptors = descriptors;
+      this.indices = indices;
+      this.from = from;
+      this.to = to;
+   }
+
+   protected void compute() {
+      if (to - from <= THRESHOLD) {
+         GifLZWDecoder lzw = new GifLZWDecoder();
+         for (int i = from; i < to; i++) {
+            indices[i] = decoder.decodeIndices(descriptors[i], indices[i], lzw);
+         }
+      } else {
+         int mid = (from + to) >>> 1;
+         invokeAll(new GifIndicesTask(decoder, descriptors, indices, from, mid), new GifIndicesTask(decoder, descriptors, indices, mid, to));
+      }
+   }
+}
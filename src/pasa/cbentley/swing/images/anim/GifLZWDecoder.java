@@ -0,0 +1,156 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable code length LZW decompressor of GIF image data.
+ * <br>
+ * <br>
+ * Reads the data sub blocks of a {@link GifFrameDescriptor} with absolute gets. The position of the source
+ * {@link ByteBuffer} is never modified, so several decoders may work on the same source in different threads.
+ * <br>
+ * <br>
+ * An instance keeps its dictionary tables between calls. It is not thread safe.
+ * @author Charles Bentley
+ *
+ */
+public class GifLZWDecoder {
+
+   private static final int MAX_CODES = 4096;
+
+   private final short[]    prefix    = new short[MAX_CODES];
+
+   private final byte[]     suffix    = new byte[MAX_CODES];
+
+   private final byte[]     stack     = new byte[MAX_CODES + 1];
+
+   /**
+    * Decompress the palette indices of the frame into dest.
+    * <br>
+    * Pixels missing from truncated or corrupted data are set to the transparent index, or 0 when none.
+    * @param src the whole GIF source
+    * @param fd position of the data in src
+    * @param dest array of at least {@link GifFrameDescriptor#getNumPixels()} bytes
+    * @return the number of pixels actually decoded from the data
+    */
+   public int decode(ByteBuffer src, GifFrameDescriptor fd, byte[] dest) {
+      int npix = fd.getNumPixels();
+      int pos = fd.getDataOffset();
+      int end = Math.min(fd.getDataEnd(), src.limit());
+      int pi = 0;
+      if (pos < end) {
+         int minCodeSize = src.get(pos++) & 0xFF;
+         if (minCodeSize >= 1 && minCodeSize <= 11) {
+            pi = decodeCodes(src, pos, end, minCodeSize, dest, npix);
+         }
+      }
+      if (pi < npix) {
+         int trans = fd.getTransparentIndex();
+         byte fill = (byte) (trans >= 0 ? trans : 0);
+         for (int i = pi; i < npix; i++) {
+            dest[i] = fill;
+         }
+      }
+      return pi;
+   }
+
+   private int decodeCodes(ByteBuffer src, int pos, int end, int minCodeSize, byte[] dest, int npix) {
+      final short[] prefix = this.prefix;
+      final byte[] suffix = this.suffix;
+      final byte[] stack = this.stack;
+      final int clear = 1 << minCodeSize;
+      final int eoi = clear + 1;
+      for (int code = 0; code < clear; code++) {
+         prefix[code] = 0;
+         suffix[code] = (byte) code;
+      }
+      int codeSize = minCodeSize + 1;
+      int codeMask = (1 << codeSize) - 1;
+      int nextCode = clear + 2;
+      int oldCode = -1;
+      int first = 0;
+      int datum = 0;
+      int bits = 0;
+      int blockRemaining = 0;
+      int top = 0;
+      int pi = 0;
+      while (pi < npix) {
+         if (top == 0) {
+            //read enough bits for the next code, jumping over sub block headers
+            while (bits < codeSize) {
+               if (blockRemaining == 0) {
+                  if (pos >= end) {
+                     return pi;
+                  }
+                  blockRemaining = src.get(pos++) & 0xFF;
+                  if (blockRemaining == 0) {
+                     return pi;
+                  }
+               }
+               if (pos >= end) {
+                  return pi;
+               }
+               datum |= (src.get(pos++) & 0xFF) << bits;
+               bits += 8;
+               blockRemaining--;
+            }
+            int code = datum & codeMask;
+            datum >>>= codeSize;
+            bits -= codeSize;
+
+            if (code == clear) {
+               codeSize = minCodeSize + 1;
+               codeMask = (1 << codeSize) - 1;
+               nextCode = clear + 2;
+               oldCode = -1;
+               continue;
+            }
+            if (code == eoi) {
+               return pi;
+            }
+            if (oldCode == -1) {
+               if (code >= clear) {
+                  //corrupted stream. first code must be a root
+                  return pi;
+               }
+               dest[pi++] = suffix[code];
+               oldCode = code;
+               first = code;
+               continue;
+            }
+            int inCode = code;
+            if (code >= nextCode) {
+               if (code > nextCode) {
+                  return pi;
+               }
+               //KwKwK case. the code is being defined by this very step
+               stack[top++] = (byte) first;
+               code = oldCode;
+            }
+            while (code >= clear) {
+               stack[top++] = suffix[code];
+               code = prefix[code];
+            }
+            first = suffix[code] & 0xFF;
+            stack[top++] = (byte) first;
+
+            if (nextCode < MAX_CODES) {
+               prefix[nextCode] = (short) oldCode;
+               suffix[nextCode] = (byte) first;
+               nextCode++;
+               if ((nextCode & codeMask) == 0 && nextCode < MAX_CODES) {
+                  codeSize++;
+                  codeMask = (1 << codeSize) - 1;
+               }
+            }
+            oldCode = inCode;
+         }
+         dest[pi++] = stack[--top];
+      }
+      return pi;
+   }
+}
@@ -0,0 +1,156 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Palette of at most 256 ARGB colors shared by the indexed checkpoints of a {@link GifEnginePlayOnly}.
+ * <br>
+ * <br>
+ * Colors are added as they are met and never removed, so an index stays valid for all the checkpoints
+ * encoded before. A composited frame with colors from several local color tables may not fit. It is then
+ * kept as ARGB by the engine.
+ * <br>
+ * Lookup is an open addressing hash on the ARGB value.
+ * @author Charles Bentley
+ *
+ */
+public class GifPalette implements IStringable {
+
+   private static final int  HASH_SIZE = 512;
+
+   private static final int  MAX       = 256;
+
+   private final int[]       colors    = new int[MAX];
+
+   /**
+    * ARGB key of each slot
+    */
+   private final int[]       hashKeys  = new int[HASH_SIZE];
+
+   /**
+    * index + 1 of the color in the slot. 0 for an empty slot
+    */
+   private final short[]     hashVals  = new short[HASH_SIZE];
+
+   protected final ImgCtx    imgc;
+
+   private int               size;
+
+   public GifPalette(ImgCtx imgc) {
+      this.imgc = imgc;
+   }
+
+   public void clear() {
+      size = 0;
+      for (int i = 0; i < HASH_SIZE; i++) {
+         hashVals[i] = 0;
+      }
+   }
+
+   /**
+    * Expands indices into ARGB pixels
+    * @param src
+    * @param srcOffset
+    * @param dest
+    * @param destOffset
+    * @param len
+    */
+   public void decode(byte[] src, int srcOffset, int[] dest, int destOffset, int len) {
+      final int[] colors = this.colors;
+      for (int i = 0; i < len; i++) {
+         dest[destOffset + i] = colors[src[srcOffset + i] & 0xFF];
+      }
+   }
+
+   /**
+    * Encodes ARGB pixels as indices in this palette, adding the colors not yet known.
+    * <br>
+    * Colors added before an overflow stay in the palette. They cost nothing to the other checkpoints.
+    * @param src
+    * @param srcOffset
+    * @param dest
+    * @param destOffset
+    * @param len
+    * @return false when the palette is full before all pixels are encoded. dest content is then undefined
+    */
+   public boolean encode(int[] src, int srcOffset, byte[] dest, int destOffset, int len) {
+      //runs of the same color are frequent. skip the hash for them
+      int lastColor = 0;
+      int lastIndex = -1;
+      for (int i = 0; i < len; i++) {
+         int c = src[srcOffset + i];
+         if (c != lastColor || lastIndex == -1) {
+            lastIndex = indexOf(c);
+            if (lastIndex == -1) {
+               return false;
+            }
+            lastColor = c;
+         }
+         dest[destOffset + i] = (byte) lastIndex;
+      }
+      return true;
+   }
+
+   public int getSize() {
+      return size;
+   }
+
+   /**
+    * Index of the color, added if not known
+    * @param argb
+    * @return -1 if the palette is full
+    */
+   public int indexOf(int argb) {
+      int slot = (argb ^ (argb >>> 9) ^ (argb >>> 18)) & (HASH_SIZE - 1);
+      while (hashVals[slot] != 0) {
+         if (hashKeys[slot] == argb) {
+            return hashVals[slot] - 1;
+         }
+         slot = (slot + 1) & (HASH_SIZE - 1);
+      }
+      if (size == MAX) {
+         return -1;
+      }
+      int index = size++;
+      colors[index] = argb;
+      hashKeys[slot] = argb;
+      hashVals[slot] = (short) (index + 1);
+      return index;
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "GifPalette");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "GifPalette");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("size", size);
+   }
+   //#enddebug
+
+}
@@ -80,6 +80,16 @@ public class ImageFrame implements IStringable, IFrameData {
       return image;
    }
 
+   /**
+    * Image of the frame that does not change while the snapshot is held. Release it when done.
+    * <br>
+    * The image of this class is never modified once set, so it is wrapped without copy.
+    * @return a snapshot owned by the caller
+    */
+   public FrameSnapshot getSnapshot() {
+      return new FrameSnapshot(sc, this, getImage());
+   }
+
    /**
     * might be sublclassed
     * @return
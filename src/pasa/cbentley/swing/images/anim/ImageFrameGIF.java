@@ -26,6 +26,11 @@ public class ImageFrameGIF extends ImageFrame {
 
    private int               h;
 
+   /**
+    * True when the image is a copy that the engine never composites again
+    */
+   private boolean           isImageOwned;
+
    /**
     * Last full frame to build o
     */
@@ -39,6 +44,21 @@ public class ImageFrameGIF extends ImageFrame {
 
    private BufferedImage     rootImage;
 
+   /**
+    * Palette indices of the frame, as decoded. Used instead of {@link ImageFrameGIF#rootImage} in indexed store mode
+    */
+   private byte[]            rootIndices;
+
+   /**
+    * Position of the compressed data of the frame in the GIF source
+    */
+   private GifFrameDescriptor descriptor;
+
+   /**
+    * Disposal code of the Graphic Control Extension. 0 to 7
+    */
+   private int               disposalCode;
+
    /**
     * 
     * @param sc
@@ -52,6 +72,40 @@ public class ImageFrameGIF extends ImageFrame {
       this.engine = engine;
    }
 
+   /**
+    *
+    * @param sc
+    * @param engine class that created this {@link ImageFrameGIF}
+    * @param delay
+    * @param disposalCode raw GCE disposal code, named with {@link GifFrameDescriptor#getDisposalName(int)}
+    * @param index
+    */
+   protected ImageFrameGIF(ImgCtx sc, GifEnginePlayOnly engine, int delay, int disposalCode, int index) {
+      super(sc, delay, GifFrameDescriptor.getDisposalName(disposalCode), index);
+      this.engine = engine;
+      this.disposalCode = disposalCode;
+   }
+
+   /**
+    * Primitive disposal code of the GCE
+    * <li> 0 - none
+    * <li> 1 - doNotDispose
+    * <li> 2 - restoreToBackgroundColor
+    * <li> 3 - restoreToPrevious
+    * @return
+    */
+   public int getDisposalCode() {
+      return disposalCode;
+   }
+
+   /**
+    * Used to decode the frame again when no root image is kept
+    * @return
+    */
+   public GifFrameDescriptor getDescriptor() {
+      return descriptor;
+   }
+
    public int getDelay() {
       return delay;
    }
@@ -68,12 +122,36 @@ public class ImageFrameGIF extends ImageFrame {
       return image;
    }
 
+   /**
+    * The image is copied by the engine, unless a copy already exists for this frame.
+    * <br>
+    * Must be called while the image of the frame is current: in the thread that steps the animation
+    * or while holding the lock of the {@link AnimOfImageFrames}.
+    * @see GifEnginePlayOnly#getSnapshot(ImageFrameGIF)
+    */
+   public FrameSnapshot getSnapshot() {
+      if (isImageOwned) {
+         return super.getSnapshot();
+      }
+      return engine.getSnapshot(this);
+   }
+
+   /**
+    * Frame with the fields of this one and a copy of its image, owned by the caller.
+    * <br>
+    * The copy is allocated at each call. A consumer that only reads the image for a while prefers
+    * {@link ImageFrameGIF#getSnapshot()}, whose image goes back to the pool once released.
+    * @return
+    */
    public ImageFrame cloneForGui() {
       BufferedImage image = getImage();
       BufferedImage copy = new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
-      ImageFrameGIF frame = new ImageFrameGIF(sc,engine, delay, disposal, index);
+      ImageFrameGIF frame = new ImageFrameGIF(sc, engine, delay, disposalCode, index);
       frame.setRootImage(rootImage);
+      frame.setRootIndices(rootIndices);
+      frame.setDescriptor(descriptor);
       frame.setFrameImage(copy);
+      frame.isImageOwned = true;
       frame.x = x;
       frame.y = y;
       frame.w = w;
@@ -97,6 +175,10 @@ public class ImageFrameGIF extends ImageFrame {
       return y;
    }
 
+   public void setDescriptor(GifFrameDescriptor descriptor) {
+      this.descriptor = descriptor;
+   }
+
    public void setFrameToBuildOne(int frameToBuildOne) {
       this.frameToBuildOne = frameToBuildOne;
    }
@@ -111,12 +193,25 @@ public class ImageFrameGIF extends ImageFrame {
 
    /**
     * override
+    * <br>
+    * When only indices are kept, a {@link BufferedImage#TYPE_BYTE_INDEXED} image is created on each call. It is not kept.
     * @return
     */
    public BufferedImage getImageRoot() {
+      if (rootImage == null && rootIndices != null) {
+         return engine.createRootImage(this);
+      }
       return rootImage;
    }
 
+   /**
+    * 
+    * @return null when the root is kept as an image
+    */
+   public byte[] getRootIndices() {
+      return rootIndices;
+   }
+
    public boolean isLastFullFrame() {
       return lastFullFrame == index;
    }
@@ -135,6 +230,14 @@ public class ImageFrameGIF extends ImageFrame {
       rootImage = img;
    }
 
+   /**
+    * Palette indices of the frame, in decoding order. Color table and interlacing are given by the descriptor
+    * @param indices array of exactly {@link GifFrameDescriptor#getNumPixels()}
+    */
+   public void setRootIndices(byte[] indices) {
+      rootIndices = indices;
+   }
+
    public void setW(int w) {
       this.w = w;
    }
@@ -166,6 +269,7 @@ public class ImageFrameGIF extends ImageFrame {
       dc.appendVarWithSpace("y", y);
       dc.appendVarWithSpace("w", w);
       dc.appendVarWithSpace("h", h);
+      dc.appendVarWithSpace("disposalCode", disposalCode);
       dc.appendVarWithSpace("lastFullFrame", lastFullFrame);
       dc.appendVarWithSpace("frameToBuildOne", frameToBuildOne);
    }
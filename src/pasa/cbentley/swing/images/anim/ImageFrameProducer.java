@@ -39,6 +39,15 @@ public abstract class ImageFrameProducer implements IStringable {
       return index;
    }
 
+   /**
+    * Returns the frame at index and makes it the current frame.
+    * <br>
+    * {@link ImageFrameProducer#getNext()} then returns the frame after it.
+    * @param index
+    * @return null if could not get the frame
+    */
+   public abstract ImageFrame getFrame(int index);
+
    /**
     * 
     * @return
@@ -69,12 +78,30 @@ public abstract class ImageFrameProducer implements IStringable {
     */
    public abstract int getNumFrames();
 
+   /**
+    * Number of frames known so far, without blocking.
+    * <br>
+    * Equals {@link ImageFrameProducer#getNumFrames()} when {@link ImageFrameProducer#isNumFramesFinal()}
+    * @return
+    */
+   public int getNumFramesKnown() {
+      return getNumFrames();
+   }
+
    /**
     * 
     * @return null if could not get the frame
     */
    public abstract ImageFrame getPrev();
 
+   /**
+    * False while the producer is still counting its frames
+    * @return
+    */
+   public boolean isNumFramesFinal() {
+      return true;
+   }
+
    /**
     * True if Producer is still able to honor either
     * <li> {@link ImageFrameProducer#getNext()}
@@ -16,6 +16,13 @@ public class ImageFrameProducerArray extends ImageFrameProducer {
 
    private ImageFrame[] frames;
 
+   /**
+    * Computed once. Frames of the array never change
+    */
+   private int          maxH = -1;
+
+   private int          maxW = -1;
+
    public ImageFrameProducerArray(ImgCtx sc, ImageFrame[] frames) {
       super(sc);
       this.frames = frames;
@@ -33,6 +40,14 @@ public class ImageFrameProducerArray extends ImageFrameProducer {
       }
    }
 
+   public ImageFrame getFrame(int index) {
+      if (index < 0 || index >= frames.length) {
+         return null;
+      }
+      resetTo(index);
+      return frames[index];
+   }
+
    public ImageFrame getPrev() {
       index--;
       if (index >= 0) {
@@ -43,19 +58,25 @@ public class ImageFrameProducerArray extends ImageFrameProducer {
    }
 
    public int getMaxWidthFrames() {
-      int max = 0;
-      for (ImageFrame frame : frames) {
-         max = Math.max(max, frame.getImage().getWidth());
+      if (maxW == -1) {
+         int max = 0;
+         for (ImageFrame frame : frames) {
+            max = Math.max(max, frame.getImage().getWidth());
+         }
+         maxW = max;
       }
-      return max;
+      return maxW;
    }
 
    public int getMaxHeightFrames() {
-      int max = 0;
-      for (ImageFrame frame : frames) {
-         max = Math.max(max, frame.getImage().getHeight());
+      if (maxH == -1) {
+         int max = 0;
+         for (ImageFrame frame : frames) {
+            max = Math.max(max, frame.getImage().getHeight());
+         }
+         maxH = max;
       }
-      return max;
+      return maxH;
    }
 
    public void resetTo(int index) {
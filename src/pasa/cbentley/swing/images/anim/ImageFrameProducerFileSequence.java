@@ -0,0 +1,449 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Frames read from a sequence of image files, PNG or any format known by {@link ImageIO}.
+ * <br>
+ * <br>
+ * Nothing is decoded up front. Frame sizes are read from the file headers only, the first time
+ * {@link ImageFrameProducerFileSequence#getMaxWidthFrames()} is called.
+ * <br>
+ * Frames are decoded in the {@link ImgCtx#getAnimExecutor()}, at most lookahead frames ahead of the current frame
+ * in the direction of play. Frames further than keepBehind frames behind the current frame are dropped.
+ * The window wraps around the end, since animations loop.
+ * <br>
+ * A frame asked before its prefetch is done is waited for, or decoded in the calling thread when not started.
+ * A file that cannot be read gives a transparent frame so that playback continues.
+ * <br>
+ * The index is the index of the current frame. -1 before the first {@link ImageFrameProducerFileSequence#getNext()}.
+ * <br>
+ * The window is guarded by this. The index, the direction and the window sizes are written under the lock since
+ * executor threads read them. Headers are read under their own lock so that decoding is not blocked.
+ * @author Charles Bentley
+ *
+ */
+public class ImageFrameProducerFileSequence extends ImageFrameProducer {
+
+   /**
+    * In 1/100th of a second
+    */
+   private final int           delay;
+
+   private final File[]        files;
+
+   /**
+    * Decoded frames in the window. null otherwise
+    */
+   private final ImageFrame[]  frames;
+
+   /**
+    * Sizes read from the headers. 0 when not read
+    */
+   private int[]               heights;
+
+   /**
+    * True when the last move was {@link ImageFrameProducerFileSequence#getPrev()}
+    */
+   private boolean             isBackward;
+
+   private boolean             isClosed;
+
+   private final boolean[]     isLoading;
+
+   private int                 keepBehind;
+
+   private int                 lookahead;
+
+   private int                 maxH        = -1;
+
+   /**
+    * Written last by {@link ImageFrameProducerFileSequence#readSizes()}. Sizes are published once it is not -1
+    */
+   private volatile int        maxW        = -1;
+
+   /**
+    * Guards the reading of the headers
+    */
+   private final Object        sizesLock   = new Object();
+
+   private int[]               widths;
+
+   /**
+    *
+    * @param sc
+    * @param files the frames in order
+    * @param delay delay of each frame in 1/100th of a second
+    */
+   public ImageFrameProducerFileSequence(ImgCtx sc, File[] files, int delay) {
+      super(sc);
+      this.files = files;
+      this.delay = delay;
+      this.frames = new ImageFrame[files.length];
+      this.isLoading = new boolean[files.length];
+      this.lookahead = 8;
+      this.keepBehind = 2;
+      this.index = -1;
+   }
+
+   public synchronized void close() {
+      isClosed = true;
+      for (int i = 0; i < frames.length; i++) {
+         frames[i] = null;
+      }
+   }
+
+   /**
+    * Decodes the file of frame index. Never null
+    * @param index
+    * @return
+    */
+   private ImageFrame decode(int index) {
+      BufferedImage img = null;
+      try {
+         img = ImageIO.read(files[index]);
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+      if (img == null) {
+         //unreadable. keep playing with a blank frame
+         readSizes();
+         int w = Math.max(1, widths[index] != 0 ? widths[index] : maxW);
+         int h = Math.max(1, heights[index] != 0 ? heights[index] : maxH);
+         img = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+      }
+      ImageFrame frame = new ImageFrame(sc, img, delay, "none");
+      frame.index = index;
+      return frame;
+   }
+
+   /**
+    * Distance of i from index in the direction of play, wrapping around the end
+    * @param i
+    * @return 0 to n - 1
+    */
+   private int distanceAhead(int i) {
+      int n = frames.length;
+      int cur = index < 0 ? 0 : Math.min(index, n - 1);
+      int d = isBackward ? cur - i : i - cur;
+      return ((d % n) + n) % n;
+   }
+
+   /**
+    * Current frame. Decoded or waited for if not prefetched. Then the window moves
+    * @return
+    */
+   private ImageFrame frameCurrent() {
+      ImageFrame frame = load(index);
+      prefetch();
+      return frame;
+   }
+
+   public ImageFrame getFrame(int index) {
+      if (index < 0 || index >= frames.length) {
+         return null;
+      }
+      moveTo(index, isBackward);
+      return frameCurrent();
+   }
+
+   public int getKeepBehind() {
+      return keepBehind;
+   }
+
+   public int getLookahead() {
+      return lookahead;
+   }
+
+   public int getMaxHeightFrames() {
+      readSizes();
+      return maxH;
+   }
+
+   public int getMaxWidthFrames() {
+      readSizes();
+      return maxW;
+   }
+
+   /**
+    * Null if reached the end
+    */
+   public ImageFrame getNext() {
+      if (index + 1 >= frames.length) {
+         return null;
+      }
+      moveTo(index + 1, false);
+      return frameCurrent();
+   }
+
+   public int getNumFrames() {
+      return files.length;
+   }
+
+   /**
+    * Null before the first frame
+    */
+   public ImageFrame getPrev() {
+      if (index - 1 < 0) {
+         return null;
+      }
+      moveTo(index - 1, true);
+      return frameCurrent();
+   }
+
+   public boolean hasMore() {
+      return true;
+   }
+
+   public boolean hasReachEnd() {
+      return true;
+   }
+
+   public boolean isDynamicNumFrames() {
+      return false;
+   }
+
+   /**
+    * True when the frame is in the window, or must be kept until it is
+    * @param i
+    * @return
+    */
+   private boolean isInWindow(int i) {
+      int d = distanceAhead(i);
+      return d <= lookahead || d >= frames.length - keepBehind;
+   }
+
+   public boolean isReverseSupported() {
+      return true;
+   }
+
+   /**
+    * Returns the decoded frame, waiting for a prefetch in progress.
+    * @param i
+    * @return
+    */
+   private ImageFrame load(int i) {
+      synchronized (this) {
+         while (isLoading[i]) {
+            try {
+               wait();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               break;
+            }
+         }
+         if (frames[i] != null) {
+            return frames[i];
+         }
+         isLoading[i] = true;
+      }
+      ImageFrame frame = decode(i);
+      synchronized (this) {
+         isLoading[i] = false;
+         if (!isClosed) {
+            frames[i] = frame;
+         }
+         notifyAll();
+      }
+      return frame;
+   }
+
+   /**
+    * Anim thread. Moves the window. Executor threads read it under the lock
+    * @param index
+    * @param isBackward
+    */
+   private synchronized void moveTo(int index, boolean isBackward) {
+      this.index = index;
+      this.isBackward = isBackward;
+   }
+
+   /**
+    * Drops the frames out of the window and starts decoding the missing frames ahead
+    */
+   private void prefetch() {
+      int n = frames.length;
+      int ahead = Math.min(lookahead, n - 1);
+      synchronized (this) {
+         if (isClosed) {
+            return;
+         }
+         for (int i = 0; i < n; i++) {
+            if (frames[i] != null && !isInWindow(i)) {
+               frames[i] = null;
+            }
+         }
+         for (int k = 1; k <= ahead; k++) {
+            final int i = isBackward ? (((index - k) % n) + n) % n : (index + k) % n;
+            if (frames[i] == null && !isLoading[i]) {
+               isLoading[i] = true;
+               sc.getAnimExecutor().execute(new Runnable() {
+                  public void run() {
+                     prefetchRun(i);
+                  }
+               });
+            }
+         }
+      }
+   }
+
+   /**
+    * Executor thread. The frame is not decoded if the window moved away in the mean time
+    * @param i
+    */
+   private void prefetchRun(int i) {
+      synchronized (this) {
+         if (isClosed || !isInWindow(i)) {
+            isLoading[i] = false;
+            notifyAll();
+            return;
+         }
+      }
+      ImageFrame frame = decode(i);
+      synchronized (this) {
+         isLoading[i] = false;
+         if (!isClosed && isInWindow(i)) {
+            frames[i] = frame;
+         }
+         notifyAll();
+      }
+   }
+
+   /**
+    * Reads the size of each frame from the file headers. Pixels are not decoded. Only done once
+    * <br>
+    * Not under the lock of the window, which the anim thread and the prefetch wait on.
+    */
+   private void readSizes() {
+      if (maxW != -1) {
+         return;
+      }
+      synchronized (sizesLock) {
+         if (maxW != -1) {
+            return;
+         }
+         readSizesHeaders();
+      }
+   }
+
+   /**
+    * Called once under {@link ImageFrameProducerFileSequence#sizesLock}
+    */
+   private void readSizesHeaders() {
+      int n = files.length;
+      int[] widths = new int[n];
+      int[] heights = new int[n];
+      int mw = 0;
+      int mh = 0;
+      for (int i = 0; i < n; i++) {
+         try {
+            ImageInputStream iis = ImageIO.createImageInputStream(files[i]);
+            if (iis == null) {
+               continue;
+            }
+            try {
+               Iterator<ImageReader> it = ImageIO.getImageReaders(iis);
+               if (it.hasNext()) {
+                  ImageReader reader = it.next();
+                  try {
+                     reader.setInput(iis, true, true);
+                     widths[i] = reader.getWidth(0);
+                     heights[i] = reader.getHeight(0);
+                  } finally {
+                     reader.dispose();
+                  }
+               }
+            } finally {
+               iis.close();
+            }
+         } catch (IOException e) {
+            //unreadable header. frame will be blank
+         }
+         mw = Math.max(mw, widths[i]);
+         mh = Math.max(mh, heights[i]);
+      }
+      this.widths = widths;
+      this.heights = heights;
+      maxH = mh;
+      //published last
+      maxW = mw;
+   }
+
+   /**
+    * The next getNext returns the frame at index
+    */
+   public void resetTo(int index) {
+      if (index < 0 || index >= frames.length) {
+         throw new IllegalArgumentException("" + index);
+      }
+      moveTo(index - 1, isBackward);
+   }
+
+   /**
+    * A getPrev returns the last frame
+    */
+   public void resetToEnd() {
+      moveTo(frames.length, isBackward);
+   }
+
+   /**
+    * A getNext returns the first frame
+    */
+   public void resetToZero() {
+      moveTo(-1, isBackward);
+   }
+
+   /**
+    * Number of frames kept behind the current frame
+    * @param keepBehind 0 or more
+    */
+   public synchronized void setKeepBehind(int keepBehind) {
+      this.keepBehind = Math.max(0, keepBehind);
+   }
+
+   /**
+    * Number of frames decoded ahead of the current frame
+    * @param lookahead 0 to decode only when asked
+    */
+   public synchronized void setLookahead(int lookahead) {
+      this.lookahead = Math.max(0, lookahead);
+   }
+
+   //#mdebug
+   public void toString(Dctx dc) {
+      dc.root(this, "ImageFrameProducerFileSequence");
+      toStringPrivate(dc);
+      super.toString(dc.sup());
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("numFrames", files.length);
+      dc.appendVarWithSpace("lookahead", lookahead);
+      dc.appendVarWithSpace("keepBehind", keepBehind);
+      dc.appendVarWithSpace("isBackward", isBackward);
+      dc.appendVarWithSpace("maxW", maxW);
+      dc.appendVarWithSpace("maxH", maxH);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "ImageFrameProducerFileSequence");
+      toStringPrivate(dc);
+      super.toString1Line(dc.sup1Line());
+   }
+   //#enddebug
+
+}
@@ -6,11 +6,23 @@ package pasa.cbentley.swing.images.anim;
 
 import java.io.IOException;
 
+import pasa.cbentley.core.src4.interfaces.ICallBack;
 import pasa.cbentley.core.src4.logging.Dctx;
 import pasa.cbentley.swing.images.ctx.ImgCtx;
 
 /**
- * 
+ * Producer of the frames of a {@link GifEnginePlayOnly}.
+ * <br>
+ * <br>
+ * Never decodes the whole file to answer a call. The first frame is shown after decoding only that frame.
+ * Frames are read up to the index asked by {@link ImageFrameProducerGifOptimized#resetTo(int)}.
+ * <br>
+ * The number of frames is counted by a block scan in a background thread. {@link ImageFrameProducer#getNumFrames()}
+ * returns -1 until the scan ends, then the scanned count, then the count of the first pass once it is done.
+ * <br>
+ * The scanned count is provisional. The first pass of the anim thread gives the final count. On truncated or malformed data
+ * the two may differ. The callback is then called again with the count of the first pass.
+ * {@link ImageFrameProducer#isNumFramesFinal()} is true only once the first pass is done.
  * @author Charles Bentley
  *
  */
@@ -18,6 +30,21 @@ public class ImageFrameProducerGifOptimized extends ImageFrameProducer {
 
    private GifEnginePlayOnly engine;
 
+   /**
+    * Set once the background count is started
+    */
+   private boolean           isScanStarted;
+
+   /**
+    * Notified with the number of frames as an {@link Integer}. Possibly null
+    */
+   private ICallBack         numFramesCallBack;
+
+   /**
+    * Last count given to {@link ImageFrameProducerGifOptimized#numFramesCallBack}. -1 if none. Guarded by this
+    */
+   private int               numFramesNotified = -1;
+
    public ImageFrameProducerGifOptimized(ImgCtx sc, GifEnginePlayOnly engine) {
       super(sc);
       this.engine = engine;
@@ -32,6 +59,9 @@ public class ImageFrameProducerGifOptimized extends ImageFrameProducer {
          ImageFrameGIF frame = engine.getFrameImage();
          if (frame != null) {
             index = frame.getIndex();
+         } else {
+            //end of the first pass. reconciles the scanned count
+            notifyNumFrames();
          }
          return frame;
       } catch (IOException e) {
@@ -41,76 +71,179 @@ public class ImageFrameProducerGifOptimized extends ImageFrameProducer {
    }
 
    /**
-    * When resetting to zero.. 2 strategies
-    * <li>fast read all remaining frames and reset to zero
-    * <li>realod the whole reader.. might not be feasible
+    * Engine goes back to the first frame. Nothing else is read.
     */
    public void resetToZero() {
-      if (!engine.isFirstPassDone()) {
-         try {
-            engine.loadUntilEOF();
-         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-         }
-      }
       index = 0;
+      if (engine.getNumFramesLoaded() > 0 || !engine.isFirstPassDone()) {
+         engine.seekToFrame(0);
+      }
+   }
+
+   /**
+    * Frames are read up to index. The engine composites the frame from its closest checkpoint.
+    * <br>
+    * Engine is positioned on the frame after index.
+    */
+   public ImageFrame getFrame(int index) {
+      engine.loadUntil(index);
+      notifyNumFrames();
+      if (index < 0 || index >= engine.getNumFramesLoaded()) {
+         return null;
+      }
+      this.index = index;
+      ImageFrameGIF frame = engine.getFrame(index);
+      seekAfter(index);
+      return frame;
+   }
+
+   /**
+    * Positions the engine so that a getNext goes forward from index
+    * @param index
+    */
+   private void seekAfter(int index) {
+      int next = index + 1;
+      if (engine.isFirstPassDone() && next >= engine.getNumFramesLoaded()) {
+         next = 0;
+      }
+      engine.seekToFrame(next);
    }
 
    /**
-    * 
+    * Previous frames were already read, except when going back from the first frame to the last.
     */
    public ImageFrame getPrev() {
-      try {
+      index--;
+      if (index < 0) {
          if (!engine.isFirstPassDone()) {
-            engine.loadUntilEOF();
-         }
-         if (isReverseSupported()) {
-            index--;
-            if (index < 0) {
-               index = engine.getNumFrames() - 1;
+            try {
+               engine.loadUntilEOF();
+            } catch (IOException e) {
+               e.printStackTrace();
             }
-            //requires engine to keep frames in memory or it has to be rebuild
-            ImageFrameGIF frame = engine.getFrame(index);
-            return frame;
-         } else {
+            notifyNumFrames();
+         }
+         index = engine.getNumFramesLoaded() - 1;
+         if (index < 0) {
             return null;
          }
-      } catch (IOException e) {
-         return null;
       }
+      //engine rebuilds it from its closest checkpoint
+      ImageFrameGIF frame = engine.getFrame(index);
+      //so that a getNext goes forward from here
+      seekAfter(index);
+      return frame;
    }
 
    /**
-    * Same problem if not seekable right now.... fast forward to make
-    * it seekable. 
+    * Reads frames up to index only. The next getNext returns that frame.
     * <br>
-    * User wants. User gets
+    * Nothing changes when the source has less frames than index.
     */
    public void resetTo(int index) {
-      if (!engine.isFirstPassDone()) {
-         try {
-            engine.loadUntilEOF();
-         } catch (IOException e) {
-            e.printStackTrace();
-         }
+      engine.loadUntil(index);
+      notifyNumFrames();
+      if (index >= 0 && index < engine.getNumFramesLoaded()) {
+         this.index = index;
+         engine.seekToFrame(index);
       }
-      this.index = index;
    }
 
    /**
-    * -1 if current not known
-    * @return
+    * Non blocking. Starts the background count the first time.
+    * @return -1 until the scan ends. Then the scanned count, replaced by the count of the first pass once it is done
     */
    public int getNumFrames() {
-      if (!engine.isFirstPassDone()) {
-         try {
-            engine.loadUntilEOF();
-         } catch (IOException e) {
-            e.printStackTrace();
+      startNumFramesScan();
+      return engine.getNumFrames();
+   }
+
+   /**
+    * Count of the first pass when done, otherwise the scanned count. The number of frames read so far while neither is known
+    */
+   public int getNumFramesKnown() {
+      int num = getNumFrames();
+      if (num == -1) {
+         num = engine.getNumFramesLoaded();
+      }
+      return num;
+   }
+
+   /**
+    * The scanned count is not final. Only the first pass is
+    */
+   public boolean isNumFramesFinal() {
+      startNumFramesScan();
+      return engine.isFirstPassDone();
+   }
+
+   /**
+    * Sets the persistent cache of the engine. Must be called before the source of the engine is set.
+    * <br>
+    * When the source is found in the cache, the engine maps the cached frames. The number of frames is known
+    * and every frame is seekable from the first call, without a background count.
+    * @param cache
+    */
+   public void setDiskCache(GifDiskCache cache) {
+      engine.setDiskCache(cache);
+   }
+
+   /**
+    * The callback is called in the background thread with the number of frames, as an {@link Integer}.
+    * <br>
+    * Called right away if the count is already known. Called again, in the anim thread, when the first pass ends
+    * on another count than the scan.
+    * @param cb
+    */
+   public void setNumFramesCallBack(ICallBack cb) {
+      synchronized (this) {
+         this.numFramesCallBack = cb;
+         numFramesNotified = -1;
+      }
+      if (engine.getNumFrames() != -1) {
+         notifyNumFrames();
+      } else {
+         startNumFramesScan();
+      }
+   }
+
+   /**
+    * Gives the count of the engine to the callback if it changed since the last call.
+    * <br>
+    * Any thread. Once the first pass is done, its count is the one given, whatever the thread.
+    */
+   private void notifyNumFrames() {
+      ICallBack cb = null;
+      int num = -1;
+      synchronized (this) {
+         if (numFramesCallBack == null) {
+            return;
          }
+         num = engine.getNumFrames();
+         if (num == -1 || num == numFramesNotified) {
+            return;
+         }
+         numFramesNotified = num;
+         cb = numFramesCallBack;
       }
-      return engine.getNumFrames();
+      cb.callBack(Integer.valueOf(num));
+   }
+
+   /**
+    * Block scan of the source in the {@link ImgCtx#getAnimExecutor()}. Frames are not decoded
+    * so the scan does not touch the state of the engine used by the anim thread.
+    */
+   private synchronized void startNumFramesScan() {
+      if (isScanStarted || engine.isFirstPassDone()) {
+         return;
+      }
+      isScanStarted = true;
+      sc.getAnimExecutor().execute(new Runnable() {
+         public void run() {
+            engine.scanNumFrames();
+            notifyNumFrames();
+         }
+      });
    }
 
    /**
@@ -121,10 +254,19 @@ public class ImageFrameProducerGifOptimized extends ImageFrameProducer {
       return false;
    }
 
+   /**
+    * The last frame must be known. Reads the remaining frames if needed.
+    */
    public void resetToEnd() {
-      if (getNumFrames() != -1) {
-         index = getNumFrames();
+      if (!engine.isFirstPassDone()) {
+         try {
+            engine.loadUntilEOF();
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+         notifyNumFrames();
       }
+      index = engine.getNumFramesLoaded();
    }
 
    public int getMaxWidthFrames() {
@@ -165,7 +307,8 @@ public class ImageFrameProducerGifOptimized extends ImageFrameProducer {
    }
 
    private void toStringPrivate(Dctx dc) {
-
+      dc.appendVarWithSpace("isScanStarted", isScanStarted);
+      dc.appendVarWithSpace("numFramesNotified", numFramesNotified);
    }
 
    public void toString1Line(Dctx dc) {
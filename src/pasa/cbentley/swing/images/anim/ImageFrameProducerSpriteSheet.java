@@ -0,0 +1,252 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.anim;
+
+import java.awt.image.BufferedImage;
+
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Frames sliced from a single sprite sheet image.
+ * <br>
+ * <br>
+ * Each frame image is a {@link BufferedImage#getSubimage(int, int, int, int)} of the sheet. It shares the raster
+ * of the sheet, so no pixel is copied whatever the number of frames. {@link ImageFrame}s are created the first time they are asked.
+ * <br>
+ * The layout is either
+ * <li>a grid of cells of the same size, read left to right, then top to bottom
+ * <li>an atlas of x, y, w, h rectangles, one per frame
+ * <br>
+ * <br>
+ * Delays are in 1/100th of a second like GIF delays.
+ * <br>
+ * The index is the index of the current frame. -1 before the first {@link ImageFrameProducerSpriteSheet#getNext()}.
+ * @author Charles Bentley
+ *
+ */
+public class ImageFrameProducerSpriteSheet extends ImageFrameProducer {
+
+   /**
+    * Delay of each frame
+    */
+   private final int[]         delays;
+
+   /**
+    * Created lazily
+    */
+   private final ImageFrame[]  frames;
+
+   private int                 maxH;
+
+   private int                 maxW;
+
+   /**
+    * x, y, w, h of each frame in the sheet
+    */
+   private final int[]         rects;
+
+   private final BufferedImage sheet;
+
+   /**
+    * Atlas layout
+    * @param sc
+    * @param sheet
+    * @param rects x, y, w, h of each frame in the sheet
+    * @param delays one delay per frame
+    * @throws IllegalArgumentException when a rectangle is outside the sheet or the arrays do not match
+    */
+   public ImageFrameProducerSpriteSheet(ImgCtx sc, BufferedImage sheet, int[] rects, int[] delays) {
+      super(sc);
+      int numFrames = rects.length / 4;
+      if (rects.length % 4 != 0 || delays.length != numFrames) {
+         throw new IllegalArgumentException(rects.length + " " + delays.length);
+      }
+      for (int i = 0; i < rects.length; i += 4) {
+         int x = rects[i];
+         int y = rects[i + 1];
+         int w = rects[i + 2];
+         int h = rects[i + 3];
+         if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > sheet.getWidth() || y + h > sheet.getHeight()) {
+            throw new IllegalArgumentException("Frame " + (i / 4) + " outside sheet");
+         }
+         maxW = Math.max(maxW, w);
+         maxH = Math.max(maxH, h);
+      }
+      this.sheet = sheet;
+      this.rects = rects;
+      this.delays = delays;
+      this.frames = new ImageFrame[numFrames];
+      this.index = -1;
+   }
+
+   /**
+    * Grid layout of numFrames cells of cellW x cellH, row by row
+    * @param sc
+    * @param sheet
+    * @param cellW
+    * @param cellH
+    * @param numFrames cells after the last frame are ignored
+    * @param delay same delay for all frames
+    */
+   public ImageFrameProducerSpriteSheet(ImgCtx sc, BufferedImage sheet, int cellW, int cellH, int numFrames, int delay) {
+      this(sc, sheet, createGrid(sheet, cellW, cellH, numFrames), createDelays(numFrames, delay));
+   }
+
+   private static int[] createDelays(int numFrames, int delay) {
+      int[] delays = new int[numFrames];
+      for (int i = 0; i < numFrames; i++) {
+         delays[i] = delay;
+      }
+      return delays;
+   }
+
+   private static int[] createGrid(BufferedImage sheet, int cellW, int cellH, int numFrames) {
+      if (cellW <= 0 || cellH <= 0) {
+         throw new IllegalArgumentException(cellW + "x" + cellH);
+      }
+      int cols = sheet.getWidth() / cellW;
+      int rows = sheet.getHeight() / cellH;
+      if (numFrames < 0 || numFrames > cols * rows) {
+         throw new IllegalArgumentException(numFrames + " frames for " + cols + "x" + rows + " cells");
+      }
+      int[] rects = new int[numFrames * 4];
+      for (int i = 0; i < numFrames; i++) {
+         rects[i * 4] = (i % cols) * cellW;
+         rects[i * 4 + 1] = (i / cols) * cellH;
+         rects[i * 4 + 2] = cellW;
+         rects[i * 4 + 3] = cellH;
+      }
+      return rects;
+   }
+
+   /**
+    * The sheet is kept. Frames created so far share its raster and frames may still be asked after close.
+    * Nothing else to release
+    */
+   public void close() {
+
+   }
+
+   /**
+    * View of the frame in the sheet.
+    * @param index
+    * @return
+    */
+   private ImageFrame createFrame(int index) {
+      ImageFrame frame = frames[index];
+      if (frame == null) {
+         int p = index * 4;
+         BufferedImage view = sheet.getSubimage(rects[p], rects[p + 1], rects[p + 2], rects[p + 3]);
+         frame = new ImageFrame(sc, view, delays[index], "none");
+         frame.index = index;
+         frames[index] = frame;
+      }
+      return frame;
+   }
+
+   public ImageFrame getFrame(int index) {
+      if (index < 0 || index >= frames.length) {
+         return null;
+      }
+      this.index = index;
+      return createFrame(index);
+   }
+
+   public int getMaxHeightFrames() {
+      return maxH;
+   }
+
+   public int getMaxWidthFrames() {
+      return maxW;
+   }
+
+   /**
+    * Null if reached the end
+    */
+   public ImageFrame getNext() {
+      if (index + 1 >= frames.length) {
+         return null;
+      }
+      index++;
+      return createFrame(index);
+   }
+
+   public int getNumFrames() {
+      return frames.length;
+   }
+
+   /**
+    * Null before the first frame
+    */
+   public ImageFrame getPrev() {
+      if (index - 1 < 0) {
+         return null;
+      }
+      index--;
+      return createFrame(index);
+   }
+
+   public boolean hasMore() {
+      return true;
+   }
+
+   public boolean hasReachEnd() {
+      return true;
+   }
+
+   public boolean isDynamicNumFrames() {
+      return false;
+   }
+
+   public boolean isReverseSupported() {
+      return true;
+   }
+
+   /**
+    * The next getNext returns the frame at index
+    */
+   public void resetTo(int index) {
+      if (index < 0 || index >= frames.length) {
+         throw new IllegalArgumentException("" + index);
+      }
+      this.index = index - 1;
+   }
+
+   /**
+    * A getPrev returns the last frame
+    */
+   public void resetToEnd() {
+      index = frames.length;
+   }
+
+   /**
+    * A getNext returns the first frame
+    */
+   public void resetToZero() {
+      index = -1;
+   }
+
+   //#mdebug
+   public void toString(Dctx dc) {
+      dc.root(this, "ImageFrameProducerSpriteSheet");
+      toStringPrivate(dc);
+      super.toString(dc.sup());
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("numFrames", frames.length);
+      dc.appendVarWithSpace("maxW", maxW);
+      dc.appendVarWithSpace("maxH", maxH);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "ImageFrameProducerSpriteSheet");
+      toStringPrivate(dc);
+      super.toString1Line(dc.sup1Line());
+   }
+   //#enddebug
+
+}
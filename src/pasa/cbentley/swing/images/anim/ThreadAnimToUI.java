@@ -9,7 +9,6 @@ import java.awt.image.BufferedImage;
 
 import pasa.cbentley.core.src4.ctx.ToStringStaticUc;
 import pasa.cbentley.core.src4.ctx.UCtx;
-import pasa.cbentley.core.src4.interfaces.ICallBack;
 import pasa.cbentley.core.src4.logging.Dctx;
 import pasa.cbentley.core.src4.logging.IDLog;
 import pasa.cbentley.core.src4.logging.ITechLvl;
@@ -17,26 +16,46 @@ import pasa.cbentley.core.src4.thread.IBRunnable;
 import pasa.cbentley.core.src4.thread.IBRunnableListener;
 import pasa.cbentley.swing.ctx.SwingCtx;
 import pasa.cbentley.swing.images.ctx.ImgCtx;
-import pasa.cbentley.swing.images.utils.DoubleBuffer;
+import pasa.cbentley.swing.images.interfaces.IGifFrameCallBack;
+import pasa.cbentley.swing.images.interfaces.IGifRepaintable;
+import pasa.cbentley.swing.images.utils.RepaintCoalescer;
+import pasa.cbentley.swing.images.utils.TripleBuffer;
 
 /**
  * Bridges the {@link AnimationCoordinator} in the UI thread with the
  * @author Charles Bentley
  *
  */
-public class ThreadAnimToUI implements IBRunnableListener, ICallBack {
+public class ThreadAnimToUI implements IBRunnableListener, IGifFrameCallBack {
 
    private AnimationCoordinator animator;
 
-   private DoubleBuffer         buffer;
+   private TripleBuffer         buffer;
 
-   private ImageFrame           frameToDraw;
+   /**
+    * Written by the anim thread, read by the UI thread
+    */
+   private volatile ImageFrame  frameToDraw;
 
    private ImgCtx               imgc;
 
+   /**
+    * Repaint requests of the anim thread, in image coordinates
+    */
+   private RepaintCoalescer     repaints;
+
    public ThreadAnimToUI(ImgCtx imgc, AnimationCoordinator animator) {
       this.imgc = imgc;
       this.animator = animator;
+      repaints = new RepaintCoalescer(imgc, new IGifRepaintable() {
+         public void requestRepaintPlease() {
+            ThreadAnimToUI.this.animator.repaintView();
+         }
+
+         public void requestRepaintRegion(int x, int y, int w, int h) {
+            ThreadAnimToUI.this.animator.repaintRegion(x, y, w, h, buffer.getWidth(), buffer.getHeight());
+         }
+      });
       bufferUpdate();
    }
 
@@ -45,7 +64,7 @@ public class ThreadAnimToUI implements IBRunnableListener, ICallBack {
     */
    public void bufferUpdate() {
       Dimension preferredSize = animator.getPreferredSize();
-      buffer = new DoubleBuffer(imgc, preferredSize.width, preferredSize.height);
+      buffer = new TripleBuffer(imgc, preferredSize.width, preferredSize.height);
    }
 
    /**
@@ -58,7 +77,15 @@ public class ThreadAnimToUI implements IBRunnableListener, ICallBack {
       requestPaintInUIThread();
    }
 
-   public DoubleBuffer getBuffer() {
+   /**
+    * Only the region that changed is repainted. Regions of frames not painted yet are merged
+    */
+   public void callBackFrame(ImageFrame frame, int x, int y, int w, int h) {
+      frameToDraw = frame;
+      repaints.post(x, y, w, h);
+   }
+
+   public TripleBuffer getBuffer() {
       return buffer;
    }
 
@@ -75,11 +102,7 @@ public class ThreadAnimToUI implements IBRunnableListener, ICallBack {
    }
 
    private void requestPaintInUIThread() {
-      getSC().execute(new Runnable() {
-         public void run() {
-            animator.repaintView();
-         }
-      });
+      repaints.postFull();
    }
 
    public void runnerException(IBRunnable runner, Throwable e) {
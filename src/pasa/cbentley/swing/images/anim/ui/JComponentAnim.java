@@ -21,7 +21,6 @@ import javax.swing.JComponent;
 
 import pasa.cbentley.core.src4.ctx.ToStringStaticUc;
 import pasa.cbentley.core.src4.ctx.UCtx;
-import pasa.cbentley.core.src4.interfaces.ICallBack;
 import pasa.cbentley.core.src4.interfaces.ITechTransform;
 import pasa.cbentley.core.src4.logging.Dctx;
 import pasa.cbentley.core.src4.logging.IDLog;
@@ -34,18 +33,22 @@ import pasa.cbentley.swing.ctx.SwingCtx;
 import pasa.cbentley.swing.images.anim.AnimOfImageFrames;
 import pasa.cbentley.swing.images.anim.AnimRunnerProducer;
 import pasa.cbentley.swing.images.anim.AnimationCoordinator;
+import pasa.cbentley.swing.images.anim.FrameSnapshot;
 import pasa.cbentley.swing.images.anim.ImageFrame;
 import pasa.cbentley.swing.images.anim.ImageFrameGIF;
 import pasa.cbentley.swing.images.ctx.ImgCtx;
 import pasa.cbentley.swing.images.interfaces.IGifCommadable;
-import pasa.cbentley.swing.images.utils.DoubleBuffer;
+import pasa.cbentley.swing.images.interfaces.IGifFrameCallBack;
+import pasa.cbentley.swing.images.interfaces.IGifRepaintable;
+import pasa.cbentley.swing.images.utils.DirtyRect;
+import pasa.cbentley.swing.images.utils.RepaintCoalescer;
+import pasa.cbentley.swing.images.utils.TripleBuffer;
 
 /**
  * {@link JComponent} wrapper for {@link AnimationCoordinator}.
  * 
- * Each {@link JComponentAnim} has its own thread?
- * 
- * TODO option to use a single thread that control several
+ * Each {@link JComponentAnim} has its own thread, unless {@link JComponentAnim#setSharedScheduler(boolean)}
+ * makes a single thread control several.
  * 
  * <br>
  * TODO Transition effects between an old Animation and a new Animation?
@@ -55,7 +58,7 @@ import pasa.cbentley.swing.images.utils.DoubleBuffer;
  * @author Charles Bentley
  *
  */
-public class JComponentAnim extends JComponent implements IGifCommadable, MouseListener, MouseWheelListener, IStringable, KeyListener, IBRunnableListener, ICallBack {
+public class JComponentAnim extends JComponent implements IGifCommadable, MouseListener, MouseWheelListener, IStringable, KeyListener, IBRunnableListener, IGifFrameCallBack {
 
    /**
     * 
@@ -64,10 +67,26 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
 
    private AnimRunnerProducer animRunner;
 
-   private DoubleBuffer       buffer;
+   private TripleBuffer       buffer;
 
    private ImageFrame         frameToDraw;
 
+   /**
+    * Last frame sent by the anim thread. Becomes the frame to draw when the coalesced repaint runs
+    */
+   private volatile ImageFrame framePosted;
+
+   /**
+    * Frame chosen by a frame command of the UI thread. Painted instead of the front buffer until the anim thread
+    * sends a frame. UI thread only. Possibly null
+    */
+   private FrameSnapshot      snapshotToDraw;
+
+   /**
+    * Used in the UI thread to map the changed region
+    */
+   private DirtyRect          repaintRegion;
+
    /**
     * Possibly null
     */
@@ -75,12 +94,23 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
 
    protected final ImgCtx     imgc;
 
+   /**
+    * When true, the animation is stepped by the {@link ImgCtx#getAnimScheduler()} shared with other animations
+    * instead of a thread of its own
+    */
+   private boolean            isSharedScheduler;
+
    private boolean            isShowData;
 
    private String             loadingMessage;
 
    private Dimension          preferredSize;
 
+   /**
+    * Repaint requests of the anim thread, in image coordinates. At most one task waits in the UI thread
+    */
+   private RepaintCoalescer   repaints;
+
    protected final SwingCtx   sc;
 
    private int                transform;
@@ -89,6 +119,18 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
       this.imgc = imgc;
       this.sc = imgc.getSwingCtx();
       preferredSize = new Dimension(200, 200);
+      repaintRegion = new DirtyRect(imgc);
+      repaints = new RepaintCoalescer(imgc, new IGifRepaintable() {
+         public void requestRepaintPlease() {
+            framePostedToDraw();
+            repaint();
+         }
+
+         public void requestRepaintRegion(int x, int y, int w, int h) {
+            framePostedToDraw();
+            repaintRegion(x, y, w, h);
+         }
+      });
       this.addMouseListener(this);
       this.addMouseWheelListener(this);
       this.addKeyListener(this);
@@ -97,15 +139,92 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
    /**
     * Call back in the {@link AnimRunnerProducer}s thread with the current frame
     */
-   public void callBack(final Object o) {
-      sc.execute(new Runnable() {
-         public void run() {
-            if (o instanceof ImageFrame) {
-               frameToDraw = (ImageFrame) o;
-            }
-            JComponentAnim.this.repaint();
+   public void callBack(Object o) {
+      if (o instanceof ImageFrame) {
+         framePosted = (ImageFrame) o;
+      }
+      repaints.postFull();
+   }
+
+   /**
+    * Call back in the {@link AnimRunnerProducer}s thread with the region that changed in image coordinates.
+    * <br>
+    * Only that region, mapped through the transform, is repainted. Regions of frames not painted yet are merged.
+    */
+   public void callBackFrame(ImageFrame frame, int x, int y, int w, int h) {
+      framePosted = frame;
+      repaints.post(x, y, w, h);
+   }
+
+   /**
+    * UI thread
+    */
+   private void framePostedToDraw() {
+      ImageFrame frame = framePosted;
+      if (frame != null) {
+         frameToDraw = frame;
+         framePosted = null;
+         if (snapshotToDraw != null) {
+            //the region of the anim thread is relative to its own frames, not to the frame of the command
+            snapshotRelease();
+            repaint();
          }
-      });
+      }
+   }
+
+   /**
+    * UI thread. Paints the front buffer again
+    */
+   private void snapshotRelease() {
+      if (snapshotToDraw != null) {
+         snapshotToDraw.release();
+         snapshotToDraw = null;
+      }
+   }
+
+   /**
+    * UI thread
+    * @param x
+    * @param y
+    * @param w
+    * @param h
+    */
+   private void repaintRegion(int x, int y, int w, int h) {
+      if (isShowData || buffer == null) {
+         repaint();
+         return;
+      }
+      int imageW = buffer.getWidth();
+      int imageH = buffer.getHeight();
+      DirtyRect region = repaintRegion;
+      region.set(x, y, w, h);
+      if (region.isEmpty()) {
+         return;
+      }
+      if (region.transform(transform, imageW, imageH)) {
+         repaint(getDrawX(imageW) + region.getX(), getDrawY(imageH) + region.getY(), region.getW(), region.getH());
+      } else {
+         repaint();
+      }
+   }
+
+   /**
+    * Image is centered when the component is larger
+    * @param imageW
+    * @return
+    */
+   private int getDrawX(int imageW) {
+      if (this.getWidth() > imageW) {
+         return (this.getWidth() - imageW) / 2;
+      }
+      return 0;
+   }
+
+   private int getDrawY(int imageH) {
+      if (this.getHeight() > imageH) {
+         return (this.getHeight() - imageH) / 2;
+      }
+      return 0;
    }
 
    public void cmdDebugAnim() {
@@ -128,7 +247,9 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
     */
    public void cmdForward() {
       if (animRunner != null) {
-         if (animRunner.getThread() != null) {
+         if (isSharedScheduler) {
+            imgc.getAnimScheduler().stepNow(animRunner);
+         } else if (animRunner.getThread() != null) {
             //anim.requestNewState(IBRunnable.STATE_5_INTERRUPTED);
             animRunner.getThread().interrupt();
          }
@@ -160,8 +281,15 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
    }
 
    public void cmdFrameTo(int val) {
-      // TODO Auto-generated method stub
-
+      if (ia == null) {
+         return;
+      }
+      synchronized (ia) {
+         if (ia.frameTo(val)) {
+            imageFrameUpdateFromGUI();
+            this.repaint();
+         }
+      }
    }
 
    public void cmdIsInverse(boolean b) {
@@ -257,7 +385,7 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
    }
 
    public AnimRunnerProducer createAnimRunner() {
-      buffer = new DoubleBuffer(imgc, preferredSize.width, preferredSize.height);
+      buffer = new TripleBuffer(imgc, preferredSize.width, preferredSize.height);
       AnimRunnerProducer anim = new AnimRunnerProducer(imgc, buffer);
       anim.addListener(this);
       anim.setCallback(this);
@@ -279,10 +407,19 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
       return transform;
    }
 
+   public boolean isSharedScheduler() {
+      return isSharedScheduler;
+   }
+
+   /**
+    * UI thread, holding the lock of the anim. The frame is painted from a snapshot of the current frame,
+    * so that the anim thread may composite other frames while it is shown
+    */
    private void imageFrameUpdateFromGUI() {
-      ImageFrame frame = ia.getCurrentFrame();
-      buffer.getFrontBuffer().resetTo(frame.getImage());
-      frameToDraw = frame;
+      FrameSnapshot snap = ia.getCurrentSnapshot();
+      snapshotRelease();
+      snapshotToDraw = snap;
+      frameToDraw = ia.getCurrentFrame();
    }
 
    public void keyPressed(KeyEvent e) {
@@ -366,20 +503,18 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
 
             g.drawString("Frame is null", 40, 40);
          } else {
-            //load our image from the buffer on which the animator writes frame data
-            BufferedImage currentImg = buffer.getFrontBuffer().getImage();
+            //image of a frame command, otherwise the buffer on which the animator writes frame data
+            BufferedImage currentImg;
+            if (snapshotToDraw != null) {
+               currentImg = snapshotToDraw.getImage();
+            } else {
+               currentImg = buffer.getFrontBuffer().getImage();
+            }
             if (currentImg != null) {
-               int w = currentImg.getWidth();
-               int x = 0;
-               if (this.getWidth() > w) {
-                  x = (this.getWidth() - w) / 2;
-               }
-               int h = currentImg.getWidth();
-               int y = 0;
-               if (this.getHeight() > h) {
-                  y = (this.getHeight() - h) / 2;
-               }
-               sc.getDU().drawRegion((Graphics2D) g, currentImg, 0, 0, currentImg.getWidth(), currentImg.getHeight(), transform, clipBounds.x + x, clipBounds.y + y);
+               //position does not depend on the clip, which is only the dirty region on partial repaints
+               int x = getDrawX(currentImg.getWidth());
+               int y = getDrawY(currentImg.getHeight());
+               sc.getDU().drawRegion((Graphics2D) g, currentImg, 0, 0, currentImg.getWidth(), currentImg.getHeight(), transform, x, y);
             } else {
                g.drawString("Null Image", 40, 40);
             }
@@ -388,7 +523,8 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
                int x = 5;
 
                int h = g.getFontMetrics().getHeight();
-               String str1 = "#" + frame.getIndex() + " of " + ia.getNumFrames();
+               String num = ia.isNumFramesFinal() ? String.valueOf(ia.getNumFrames()) : ia.getNumFramesKnown() + "+";
+               String str1 = "#" + frame.getIndex() + " of " + num;
                String str2 = "" + frame.getDisposal();
                String str3 = "delay:" + frame.getDelay();
                String str4 = "";
@@ -440,11 +576,7 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
       //#debug
       toDLog().pFlow("newState=" + ToStringStaticUc.toStringState(newState), this, JComponentAnim.class, "runnerNewState", ITechLvl.LVL_05_FINE, true);
 
-      sc.execute(new Runnable() {
-         public void run() {
-            JComponentAnim.this.repaint();
-         }
-      });
+      repaints.postFull();
    }
 
    /**
@@ -453,6 +585,7 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
     */
    public void setImage(AnimOfImageFrames ia) {
       this.ia = ia;
+      snapshotRelease();
       if (ia != null) {
          //we need to know some data
          preferredSize = new Dimension(ia.getAnimWidth(), ia.getAnimHeight());
@@ -460,11 +593,19 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
          //#debug
          toDLog().pFlow("", this, JComponentAnim.class, "setImage", ITechLvl.LVL_05_FINE, false);
 
+         if (isSharedScheduler && this.animRunner != null) {
+            //the previous animation would otherwise keep its slot in the scheduler
+            imgc.getAnimScheduler().remove(this.animRunner);
+         }
          AnimRunnerProducer animRunner = createAnimRunner();
          animRunner.setAnimation(ia);
          animRunner.setCallback(this);
          this.animRunner = animRunner;
-         sc.getExecutorService().execute(animRunner);
+         if (isSharedScheduler) {
+            imgc.getAnimScheduler().add(animRunner);
+         } else {
+            imgc.getAnimExecutor().execute(animRunner);
+         }
       }
    }
 
@@ -473,6 +614,15 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
       this.loadingMessage = message;
    }
 
+   /**
+    * Applies to the next {@link AnimOfImageFrames} set. Use it for views showing many small animations at once,
+    * where a thread per animation costs more than the animations themselves.
+    * @param isSharedScheduler true to use the scheduler of the {@link ImgCtx}. false by default
+    */
+   public void setSharedScheduler(boolean isSharedScheduler) {
+      this.isSharedScheduler = isSharedScheduler;
+   }
+
    /**
     * Update preferred size
     * @param transform
@@ -516,6 +666,7 @@ public class JComponentAnim extends JComponent implements IGifCommadable, MouseL
       dc.root(this, "ImageComponent");
       dc.appendVarWithSpace("loadingMessage", loadingMessage);
       dc.appendVarWithSpace("transform", transform);
+      dc.appendVarWithSpace("isSnapshotToDraw", snapshotToDraw != null);
       dc.appendVarWithSpace("pw", preferredSize.width);
       dc.appendVarWithSpace("ph", preferredSize.height);
       dc.nlLvlTitleIfNull(ia, "ImageAnim");
@@ -5,15 +5,20 @@
 package pasa.cbentley.swing.images.ctx;
 
 import java.awt.image.BufferedImage;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import pasa.cbentley.core.src4.ctx.ACtx;
 import pasa.cbentley.core.src5.ctx.C5Ctx;
 import pasa.cbentley.swing.ctx.SwingCtx;
+import pasa.cbentley.swing.images.anim.AnimScheduler;
 
 /**
  * Provides image services. Logically it requires a {@link SwingCtx} .
  * 
  * <li> Animation support for {@link BufferedImage}
+ * <li> Executor of animation runners and GIF loading tasks, see {@link ImgCtx#getAnimExecutor()}
  * @author Charles Bentley
  *
  */
@@ -21,6 +26,15 @@ public class ImgCtx extends ACtx {
 
    public static final int CTX_ID = 4002;
 
+   /**
+    * Null to use the executor of the {@link SwingCtx}
+    */
+   private Executor        animExecutor;
+
+   private AnimScheduler   animScheduler;
+
+   private boolean         isVirtualThreads;
+
    private final SwingCtx  sc;
 
    public ImgCtx(SwingCtx sc) {
@@ -28,6 +42,35 @@ public class ImgCtx extends ACtx {
       this.sc = sc;
    }
 
+   /**
+    * Executor running the animation runners, the prefetch of frames and the GIF loading tasks.
+    * <br>
+    * <br>
+    * Those tasks spend most of their time sleeping until the next frame or blocked on file reads.
+    * On a JVM with virtual threads, {@link ImgCtx#setVirtualThreads(boolean)} runs each of them
+    * in a virtual thread, so that thousands of animations do not need a platform thread each.
+    * @return the executor set with {@link ImgCtx#setAnimExecutor(Executor)}, or the executor of the {@link SwingCtx}
+    */
+   public synchronized Executor getAnimExecutor() {
+      if (animExecutor != null) {
+         return animExecutor;
+      }
+      return sc.getExecutorService();
+   }
+
+   /**
+    * Scheduler shared by the animations that do not run in a thread of their own.
+    * <br>
+    * Created the first time it is asked.
+    * @return
+    */
+   public synchronized AnimScheduler getAnimScheduler() {
+      if (animScheduler == null) {
+         animScheduler = new AnimScheduler(this);
+      }
+      return animScheduler;
+   }
+
    /**
     * 
     * @return
@@ -44,4 +87,43 @@ public class ImgCtx extends ACtx {
       return sc;
    }
 
+   /**
+    * True when animation tasks run in virtual threads
+    * @return
+    */
+   public synchronized boolean isVirtualThreads() {
+      return isVirtualThreads;
+   }
+
+   /**
+    * Executor for the animation tasks
+    * @param executor null to go back to the executor of the {@link SwingCtx}
+    */
+   public synchronized void setAnimExecutor(Executor executor) {
+      this.animExecutor = executor;
+      this.isVirtualThreads = false;
+   }
+
+   /**
+    * Runs the animation tasks in a virtual thread each, when the JVM supports them.
+    * <br>
+    * The code is compiled for Java 8, so the virtual thread executor is looked up by reflection.
+    * @param isVirtual false to go back to the executor of the {@link SwingCtx}
+    * @return true if virtual threads are used. false on a JVM without them
+    */
+   public synchronized boolean setVirtualThreads(boolean isVirtual) {
+      animExecutor = null;
+      isVirtualThreads = false;
+      if (isVirtual) {
+         try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            animExecutor = (Executor) m.invoke(null);
+            isVirtualThreads = true;
+         } catch (Exception e) {
+            //Java 8 to 18 has no such method. 19 and 20 throw when preview features are disabled
+         }
+      }
+      return isVirtualThreads;
+   }
+
 }
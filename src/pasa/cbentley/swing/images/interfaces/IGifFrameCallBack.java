@@ -0,0 +1,30 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.interfaces;
+
+import pasa.cbentley.core.src4.interfaces.ICallBack;
+import pasa.cbentley.swing.images.anim.AnimRunnerProducer;
+import pasa.cbentley.swing.images.anim.ImageFrame;
+
+/**
+ * {@link ICallBack} of an {@link AnimRunnerProducer} that is also given the region that changed.
+ * @author Charles Bentley
+ *
+ */
+public interface IGifFrameCallBack extends ICallBack {
+
+   /**
+    * Called in the anim thread once the frame is in the front buffer, instead of {@link ICallBack#callBack(Object)}.
+    * <br>
+    * The region is in image coordinates, before any transform. It is the whole image when the frame
+    * does not follow the previous frame sent.
+    * @param frame
+    * @param x
+    * @param y
+    * @param w
+    * @param h
+    */
+   public void callBackFrame(ImageFrame frame, int x, int y, int w, int h);
+}
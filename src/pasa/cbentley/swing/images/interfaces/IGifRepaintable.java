@@ -10,4 +10,15 @@ public interface IGifRepaintable {
     * 
     */
    public void requestRepaintPlease();
+
+   /**
+    * Only the region changed.
+    * <br>
+    * Coordinates of the Graphics given to the paintAnimFrame of the animation. The x,y draw offset and the transform are applied.
+    * @param x
+    * @param y
+    * @param w
+    * @param h
+    */
+   public void requestRepaintRegion(int x, int y, int w, int h);
 }
@@ -0,0 +1,73 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.interfaces;
+
+import pasa.cbentley.swing.images.anim.GifEnginePlayOnly;
+import pasa.cbentley.swing.images.anim.GifFrameCache;
+import pasa.cbentley.swing.images.anim.GifIndicesCache;
+
+/**
+ * Constants for configuring a {@link GifEnginePlayOnly}
+ * @author Charles Bentley
+ *
+ */
+public interface ITechGifEngine {
+
+   /**
+    * Least recently used composited frame is evicted first.
+    * <br>
+    * Best when frames are accessed randomly. A looping animation larger than the budget never hits.
+    * <br>
+    * Used by {@link GifFrameCache}
+    */
+   public static final int CACHE_POLICY_0_LRU = 0;
+
+   /**
+    * Frames are cached in the order they are composited until the budget is full. Nothing is evicted afterwards.
+    * <br>
+    * Loop aware. Playback is sequential so the first frames that fit are always served from the cache,
+    * while LRU would evict each frame just before it is played again.
+    * <br>
+    * Used by {@link GifFrameCache}
+    */
+   public static final int CACHE_POLICY_1_PIN = 1;
+
+   /**
+    * The first pass keeps a root image of each frame. Frames are composited from those images.
+    * <br>
+    * Memory grows with the number of frames.
+    */
+   public static final int STORE_0_ROOT_IMAGES = 0;
+
+   /**
+    * Only frame metadata and the offsets of the compressed data are kept.
+    * <br>
+    * Each frame is decoded again from the source every time it is composited.
+    * No composited frame cache and no checkpoints. Memory is the master image and at most one restoreToPrevious snapshot,
+    * whatever the number of frames.
+    */
+   public static final int STORE_1_STREAMING   = 1;
+
+   /**
+    * Like {@link ITechGifEngine#STORE_0_ROOT_IMAGES} but the root of each frame is kept as its byte palette indices
+    * instead of an int ARGB image. Indices are expanded through the frame color table when composited.
+    * <br>
+    * Checkpoints are kept as indices in a palette shared by all checkpoints, as long as the composited colors fit in 256 entries.
+    * <br>
+    * Roughly 4 times less memory per frame. Composited frames in the cache stay ARGB.
+    */
+   public static final int STORE_2_INDEXED     = 2;
+
+   /**
+    * Only the position of the compressed LZW data of each frame in the source is kept, like {@link ITechGifEngine#STORE_1_STREAMING}.
+    * A frame is decoded on demand, in a pooled scratch array, when it is composited.
+    * <br>
+    * A small {@link GifIndicesCache} of decoded frames sits in front of the decompression.
+    * Checkpoints and the composited frame cache are used as configured, so their budgets decide how much
+    * decoded memory an idle animation keeps.
+    */
+   public static final int STORE_3_COMPRESSED  = 3;
+
+}
@@ -0,0 +1,160 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.utils;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.interfaces.ITechTransform;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Mutable rectangle of pixels that changed between 2 animation frames.
+ * <br>
+ * <br>
+ * Reused by the anim thread for every frame, no allocation.
+ * @author Charles Bentley
+ *
+ */
+public class DirtyRect implements IStringable {
+
+   private int            h;
+
+   protected final ImgCtx imgc;
+
+   private int            w;
+
+   private int            x;
+
+   private int            y;
+
+   public DirtyRect(ImgCtx imgc) {
+      this.imgc = imgc;
+   }
+
+   /**
+    * Intersects with the rectangle 0,0,w,h
+    * @param w
+    * @param h
+    */
+   public void clip(int w, int h) {
+      int x0 = Math.max(0, x);
+      int y0 = Math.max(0, y);
+      int x1 = Math.min(w, x + this.w);
+      int y1 = Math.min(h, y + this.h);
+      set(x0, y0, Math.max(0, x1 - x0), Math.max(0, y1 - y0));
+   }
+
+   public int getH() {
+      return h;
+   }
+
+   public int getW() {
+      return w;
+   }
+
+   public int getX() {
+      return x;
+   }
+
+   public int getY() {
+      return y;
+   }
+
+   public boolean isEmpty() {
+      return w <= 0 || h <= 0;
+   }
+
+   public void set(int x, int y, int w, int h) {
+      this.x = x;
+      this.y = y;
+      this.w = w;
+      this.h = h;
+   }
+
+   /**
+    * Maps the rectangle from image coordinates to the coordinates of the image drawn with transform.
+    * <br>
+    * Only identity and the 90/270 rotations and their mirrors are mapped.
+    * @param transform {@link ITechTransform}
+    * @param imageW width of the image before the transform
+    * @param imageH height of the image before the transform
+    * @return false when the transform is not supported. Caller repaints everything
+    */
+   public boolean transform(int transform, int imageW, int imageH) {
+      switch (transform) {
+         case 0:
+            return true;
+         case ITechTransform.TRANSFORM_5_ROT_90:
+            set(imageH - y - h, x, h, w);
+            return true;
+         case ITechTransform.TRANSFORM_6_ROT_270:
+            set(y, imageW - x - w, h, w);
+            return true;
+         case ITechTransform.TRANSFORM_7_MIRROR_ROT90:
+            set(imageH - y - h, imageW - x - w, h, w);
+            return true;
+         case ITechTransform.TRANSFORM_4_MIRROR_ROT270:
+            set(y, x, h, w);
+            return true;
+         default:
+            return false;
+      }
+   }
+
+   /**
+    * Grows to include the rectangle. An empty rectangle is ignored
+    * @param x
+    * @param y
+    * @param w
+    * @param h
+    */
+   public void union(int x, int y, int w, int h) {
+      if (w <= 0 || h <= 0) {
+         return;
+      }
+      if (isEmpty()) {
+         set(x, y, w, h);
+         return;
+      }
+      int x0 = Math.min(this.x, x);
+      int y0 = Math.min(this.y, y);
+      int x1 = Math.max(this.x + this.w, x + w);
+      int y1 = Math.max(this.y + this.h, y + h);
+      set(x0, y0, x1 - x0, y1 - y0);
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "DirtyRect");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "DirtyRect");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("x", x);
+      dc.appendVarWithSpace("y", y);
+      dc.appendVarWithSpace("w", w);
+      dc.appendVarWithSpace("h", h);
+   }
+   //#enddebug
+
+}
@@ -0,0 +1,158 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.utils;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+import pasa.cbentley.swing.images.interfaces.IGifRepaintable;
+
+/**
+ * Merges the repaint requests of the anim thread so that at most one repaint task of a view waits in the UI thread queue.
+ * <br>
+ * <br>
+ * Requests are posted from any thread. The first request posts this {@link Runnable} in the UI thread. The next ones
+ * only grow the pending region until that task runs. The task then asks the target to repaint the union of the regions.
+ * <br>
+ * When the UI thread falls behind, frames are superseded instead of piling up repaint tasks in the event queue.
+ * <br>
+ * The region is in the coordinates expected by the target. No new object is created per request.
+ * @author Charles Bentley
+ *
+ */
+public class RepaintCoalescer implements Runnable, IStringable {
+
+   protected final ImgCtx        imgc;
+
+   private boolean               isFull;
+
+   /**
+    * True while a task is posted and did not start yet
+    */
+   private final AtomicBoolean   isPending = new AtomicBoolean();
+
+   private int                   numPosts;
+
+   private int                   numRuns;
+
+   /**
+    * Union of the regions posted since the last run. Guarded by this
+    */
+   private final DirtyRect       region;
+
+   /**
+    * Region copied in the UI thread for the target
+    */
+   private final DirtyRect       regionRun;
+
+   private final IGifRepaintable target;
+
+   /**
+    *
+    * @param imgc
+    * @param target called in the UI thread
+    */
+   public RepaintCoalescer(ImgCtx imgc, IGifRepaintable target) {
+      this.imgc = imgc;
+      this.target = target;
+      this.region = new DirtyRect(imgc);
+      this.regionRun = new DirtyRect(imgc);
+   }
+
+   /**
+    * Number of requests merged into a pending task
+    * @return
+    */
+   public synchronized int getNumCoalesced() {
+      return numPosts - numRuns;
+   }
+
+   /**
+    * Any thread. Asks a repaint of the region
+    * @param x
+    * @param y
+    * @param w
+    * @param h
+    */
+   public void post(int x, int y, int w, int h) {
+      synchronized (this) {
+         numPosts++;
+         region.union(x, y, w, h);
+      }
+      schedule();
+   }
+
+   /**
+    * Any thread. Asks a repaint of the whole view
+    */
+   public void postFull() {
+      synchronized (this) {
+         numPosts++;
+         isFull = true;
+      }
+      schedule();
+   }
+
+   /**
+    * UI thread. Repaints what was posted since the last run.
+    */
+   public void run() {
+      //cleared first. a request posted from now on posts a new task
+      isPending.set(false);
+      boolean isFullRun;
+      synchronized (this) {
+         numRuns++;
+         isFullRun = isFull;
+         regionRun.set(region.getX(), region.getY(), region.getW(), region.getH());
+         isFull = false;
+         region.set(0, 0, 0, 0);
+      }
+      if (isFullRun) {
+         target.requestRepaintPlease();
+      } else if (!regionRun.isEmpty()) {
+         target.requestRepaintRegion(regionRun.getX(), regionRun.getY(), regionRun.getW(), regionRun.getH());
+      }
+   }
+
+   private void schedule() {
+      if (isPending.compareAndSet(false, true)) {
+         imgc.getSwingCtx().execute(this);
+      }
+   }
+
+   //#mdebug
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "RepaintCoalescer");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "RepaintCoalescer");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("isPending", isPending.get());
+      dc.appendVarWithSpace("numPosts", numPosts);
+      dc.appendVarWithSpace("numRuns", numRuns);
+   }
+   //#enddebug
+
+}
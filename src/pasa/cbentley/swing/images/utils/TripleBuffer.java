@@ -0,0 +1,228 @@
+/*
+ * (c) 2018-2020 Charles-Philip Bentley
+ * This code is licensed under MIT license (see LICENSE.txt for details)
+ */
+package pasa.cbentley.swing.images.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pasa.cbentley.core.src4.ctx.UCtx;
+import pasa.cbentley.core.src4.logging.Dctx;
+import pasa.cbentley.core.src4.logging.IDLog;
+import pasa.cbentley.core.src4.logging.IStringable;
+import pasa.cbentley.swing.images.ctx.ImgCtx;
+
+/**
+ * Class with 3 {@link WritableBufferedImage} handing frames from the anim thread to the UI thread without locks.
+ *
+ * <li>back: written by the anim thread. Only the anim thread touches it
+ * <li>front: painted by the UI thread. Only the UI thread touches it
+ * <li>ready: the last complete frame, waiting for the UI thread
+ * <br>
+ * <br>
+ * The anim thread publishes its back buffer by exchanging it atomically with the ready one. It never waits for a paint.
+ * The UI thread takes the ready buffer, if a new one was published, by exchanging it with its front buffer.
+ * The buffer being painted is never written, so a slow paint always draws a complete frame.
+ * <br>
+ * When the anim thread publishes twice before the UI thread takes the ready buffer, the older frame is superseded and never painted.
+ * <br>
+ * All buffers have the same size.
+ * <br>
+ * <br>
+ * Feedback for the anim thread. The time a frame waits between its publication and the moment the UI thread takes it
+ * to paint is averaged in {@link TripleBuffer#getLatencyNanos()}. {@link TripleBuffer#getPendingNanos()} tells
+ * for how long the UI thread has not taken any frame.
+ * <br>
+ * A superseded frame does not reset the wait. The wait starts at the first frame published since the last take.
+ * @author Charles Bentley
+ *
+ */
+public class TripleBuffer implements IStringable {
+
+   /**
+    * Set in {@link TripleBuffer#ready} when the ready buffer was published but not taken yet
+    */
+   private static final int              FLAG_FRESH = 4;
+
+   private static final int              MASK_SLOT  = 3;
+
+   /**
+    * Slot written by the anim thread
+    */
+   private int                           back;
+
+   /**
+    * Slot painted by the UI thread
+    */
+   private int                           front;
+
+   private final int                     h;
+
+   protected final ImgCtx                imgc;
+
+   private final WritableBufferedImage[] images;
+
+   /**
+    * Written by the UI thread. Moving average of the wait of the frames taken
+    */
+   private volatile long                 latencyNanos;
+
+   /**
+    * Anim thread. {@link System#nanoTime()} of the first frame published since the UI thread last took one
+    */
+   private long                          pendingSince;
+
+   /**
+    * Start of the wait of the frame of each slot, copied from {@link TripleBuffer#pendingSince}
+    */
+   private final long[]                  published;
+
+   /**
+    * Slot of the last published frame, with {@link TripleBuffer#FLAG_FRESH}
+    */
+   private final AtomicInteger           ready;
+
+   private volatile int                  superseded;
+
+   private final int                     w;
+
+   public TripleBuffer(ImgCtx sc, int w, int h) {
+      this.imgc = sc;
+      this.w = w;
+      this.h = h;
+      published = new long[3];
+      images = new WritableBufferedImage[3];
+      for (int i = 0; i < images.length; i++) {
+         images[i] = new WritableBufferedImage(w, h);
+      }
+      front = 0;
+      ready = new AtomicInteger(1);
+      back = 2;
+   }
+
+   /**
+    * Anim thread only
+    * @return the buffer to write the next frame into. Its content is an older frame
+    */
+   public WritableBufferedImage getBackBuffer() {
+      return images[back];
+   }
+
+   /**
+    * UI thread only.
+    * <br>
+    * Takes the last published frame if there is a new one. Otherwise the buffer is the one of the previous call.
+    * @return
+    */
+   public WritableBufferedImage getFrontBuffer() {
+      if ((ready.get() & FLAG_FRESH) != 0) {
+         int old = ready.getAndSet(front);
+         front = old & MASK_SLOT;
+         //the exchange makes the time written by the anim thread visible
+         long wait = System.nanoTime() - published[front];
+         latencyNanos = (latencyNanos * 3 + wait) / 4;
+      }
+      return images[front];
+   }
+
+   /**
+    * Number of published frames that were replaced by a newer one before the UI thread took them
+    * @return
+    */
+   public int getFramesSuperseded() {
+      return superseded;
+   }
+
+   /**
+    * Any thread
+    * @return
+    */
+   public int getHeight() {
+      return h;
+   }
+
+   /**
+    * Moving average of the time between the publication of a frame and the moment the UI thread took it.
+    * <br>
+    * Not updated while the UI thread takes nothing. See {@link TripleBuffer#getPendingNanos()}
+    * @return
+    */
+   public long getLatencyNanos() {
+      return latencyNanos;
+   }
+
+   /**
+    * Anim thread only
+    * @return time frames have been waiting for the UI thread. 0 when the last one was taken
+    */
+   public long getPendingNanos() {
+      if ((ready.get() & FLAG_FRESH) == 0) {
+         return 0;
+      }
+      return System.nanoTime() - pendingSince;
+   }
+
+   /**
+    * Any thread
+    * @return
+    */
+   public int getWidth() {
+      return w;
+   }
+
+   /**
+    * Anim thread only. Publishes the back buffer, which becomes the ready one,
+    * and gets the previous ready one as the new back buffer.
+    * <br>
+    * Never blocks.
+    */
+   public void swapImages() {
+      if ((ready.get() & FLAG_FRESH) == 0) {
+         //the UI thread took the previous frame. a new wait starts
+         pendingSince = System.nanoTime();
+      }
+      published[back] = pendingSince;
+      int old = ready.getAndSet(back | FLAG_FRESH);
+      if ((old & FLAG_FRESH) != 0) {
+         superseded++;
+      }
+      back = old & MASK_SLOT;
+   }
+
+   //#mdebug
+   public IDLog toDLog() {
+      return toStringGetUCtx().toDLog();
+   }
+
+   public String toString() {
+      return Dctx.toString(this);
+   }
+
+   public void toString(Dctx dc) {
+      dc.root(this, "TripleBuffer");
+      toStringPrivate(dc);
+   }
+
+   public String toString1Line() {
+      return Dctx.toString1Line(this);
+   }
+
+   private void toStringPrivate(Dctx dc) {
+      dc.appendVarWithSpace("w", w);
+      dc.appendVarWithSpace("h", h);
+      dc.appendVarWithSpace("superseded", superseded);
+      dc.appendVarWithSpace("latencyNanos", latencyNanos);
+   }
+
+   public void toString1Line(Dctx dc) {
+      dc.root1Line(this, "TripleBuffer");
+      toStringPrivate(dc);
+   }
+
+   public UCtx toStringGetUCtx() {
+      return imgc.getUC();
+   }
+
+   //#enddebug
+
+}
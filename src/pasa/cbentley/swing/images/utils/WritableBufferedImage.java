@@ -7,6 +7,8 @@ package pasa.cbentley.swing.images.utils;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
 
 public class WritableBufferedImage {
 
@@ -14,6 +16,11 @@ public class WritableBufferedImage {
 
    private Graphics2D    masterGraphics      = null;
 
+   /**
+    * Tag of the content, set by the writer that knows what it wrote. -1 when unknown
+    */
+   private int           version             = -1;
+
    public WritableBufferedImage(int width, int height) {
       init(width, height);
    }
@@ -30,6 +37,7 @@ public class WritableBufferedImage {
    }
 
    public void clear() {
+      version = -1;
       masterGraphics.clearRect(0, 0, masterBufferedImage.getWidth(), masterBufferedImage.getHeight());
    }
 
@@ -37,17 +45,137 @@ public class WritableBufferedImage {
       return masterBufferedImage;
    }
 
+   public int getWidth() {
+      return masterBufferedImage.getWidth();
+   }
+
+   public int getHeight() {
+      return masterBufferedImage.getHeight();
+   }
+
+   /**
+    * Direct access to the ARGB pixels of the image, with a scanline of {@link WritableBufferedImage#getWidth()}.
+    * <br>
+    * Writes are immediately visible in {@link WritableBufferedImage#getImage()}
+    * @return
+    */
+   public int[] getPixels() {
+      return ((DataBufferInt) masterBufferedImage.getRaster().getDataBuffer()).getData();
+   }
+
    public void drawImage(BufferedImage img, int x, int y) {
+      version = -1;
       masterGraphics.drawImage(img, x, y, null);
 
    }
 
    public void resetTo(BufferedImage from) {
+      version = -1;
       masterGraphics.clearRect(0, 0, masterBufferedImage.getWidth(), masterBufferedImage.getHeight());
       drawImage(from, 0, 0);
    }
 
+   /**
+    * Sets the pixels of the rectangle directly in the raster. No clipping, the rectangle must be inside the image.
+    * @param x
+    * @param y
+    * @param w
+    * @param h
+    * @param argb
+    */
+   public void fill(int x, int y, int w, int h, int argb) {
+      version = -1;
+      int[] pixels = getPixels();
+      int scan = masterBufferedImage.getWidth();
+      int offset = y * scan + x;
+      for (int j = 0; j < h; j++) {
+         Arrays.fill(pixels, offset, offset + w, argb);
+         offset += scan;
+      }
+   }
+
+   /**
+    * Copies the pixels of the rectangle into dest, with a scanline of w. No clipping.
+    * @param x
+    * @param y
+    * @param w
+    * @param h
+    * @param dest at least w * h
+    */
+   public void getRect(int x, int y, int w, int h, int[] dest) {
+      int[] pixels = getPixels();
+      int scan = masterBufferedImage.getWidth();
+      int offset = y * scan + x;
+      for (int j = 0; j < h; j++) {
+         System.arraycopy(pixels, offset, dest, j * w, w);
+         offset += scan;
+      }
+   }
+
+   /**
+    * Writes back pixels read with {@link WritableBufferedImage#getRect(int, int, int, int, int[])}
+    * @param x
+    * @param y
+    * @param w
+    * @param h
+    * @param src scanline of w
+    */
+   public void setRect(int x, int y, int w, int h, int[] src) {
+      version = -1;
+      int[] pixels = getPixels();
+      int scan = masterBufferedImage.getWidth();
+      int offset = y * scan + x;
+      for (int j = 0; j < h; j++) {
+         System.arraycopy(src, j * w, pixels, offset, w);
+         offset += scan;
+      }
+   }
+
    public void clearRect(int x, int y, int w, int h) {
+      version = -1;
       masterGraphics.clearRect(x, y, w, h);
    }
+
+   /**
+    * Copies the rectangle of from at the same position. from must have the size of this image.
+    * <br>
+    * Rows are copied with {@link System#arraycopy(Object, int, Object, int, int)} when from is a plain ARGB int image.
+    * Otherwise the rectangle is cleared and drawn.
+    * <br>
+    * The version is not modified. The caller knows which content it copied.
+    * @param from
+    * @param x
+    * @param y
+    * @param w
+    * @param h
+    */
+   public void copyRect(BufferedImage from, int x, int y, int w, int h) {
+      if (from.getType() == BufferedImage.TYPE_INT_ARGB && from.getRaster().getParent() == null) {
+         int[] src = ((DataBufferInt) from.getRaster().getDataBuffer()).getData();
+         int[] pixels = getPixels();
+         int scan = masterBufferedImage.getWidth();
+         int offset = y * scan + x;
+         for (int j = 0; j < h; j++) {
+            System.arraycopy(src, offset, pixels, offset, w);
+            offset += scan;
+         }
+      } else {
+         masterGraphics.clearRect(x, y, w, h);
+         masterGraphics.drawImage(from, x, y, x + w, y + h, x, y, x + w, y + h, null);
+      }
+   }
+
+   /**
+    * Tag of the content. Any write through this class sets it to -1.
+    * <br>
+    * Writes in the array of {@link WritableBufferedImage#getPixels()} do not. The writer must set it.
+    * @return -1 when the content is unknown
+    */
+   public int getVersion() {
+      return version;
+   }
+
+   public void setVersion(int version) {
+      this.version = version;
+   }
 }